@@ -1,33 +1,65 @@
 package main.java.app;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.scene.control.Label;
 import javafx.scene.image.Image;
+import javafx.scene.layout.StackPane;
 import javafx.stage.Stage;
+import main.java.app.peer.LocalAddresses;
 import main.java.app.peer.PeerController;
+import main.java.app.peer.StartupTiming;
 
 import java.awt.*;
 
 public class PeerMain extends Application {
-    private PeerController controller;
+    private volatile PeerController controller;
 
     @Override
-    public void start(Stage stage) throws Exception{
-        FXMLLoader loader = new FXMLLoader(getClass().getResource("/main/resources/fxml/LokalpediaChatView.fxml"));
-        Parent root = loader.load();
-
-        controller = loader.getController();
+    public void init() throws Exception {
+        StartupTiming.mark("fx toolkit ready");
+        // enumerasi interface jalan paralel dengan pembuatan window
+        LocalAddresses.warmUp();
+    }
 
-        Scene scene = new Scene(root);
+    @Override
+    public void start(Stage stage) throws Exception{
+        // window langsung tampil, isi FXML menyusul dari background
+        StackPane placeholder = new StackPane(new Label("Loading Lokalpedia..."));
+        placeholder.setStyle("-fx-background-color: #FFF5EE;");
+        Scene scene = new Scene(placeholder, 914, 669);
         stage.setTitle("Lokalpedia Group Chat");
         stage.setResizable(false);
-
-        Image icon = new Image(getClass().getResourceAsStream("/main/resources/images/lokalicon.png"));
-        stage.getIcons().add(icon);
         stage.setScene(scene);
         stage.show();
+        StartupTiming.mark("window shown");
+
+        Thread loader = new Thread(() -> {
+            try {
+                FXMLLoader fxml = new FXMLLoader(getClass().getResource("/main/resources/fxml/LokalpediaChatView.fxml"));
+                Parent root = fxml.load();
+                PeerController c = fxml.getController();
+                StartupTiming.mark("fxml loaded");
+
+                // bind listener + load history, paralel dengan pasang scene di FX thread
+                c.warmUp();
+
+                Image icon = new Image(getClass().getResourceAsStream("/main/resources/images/lokalicon.png"));
+                Platform.runLater(() -> {
+                    controller = c;
+                    scene.setRoot(root);
+                    stage.getIcons().add(icon);
+                    StartupTiming.mark("ui ready");
+                });
+            } catch (Exception e) {
+                Platform.runLater(() -> placeholder.getChildren().setAll(new Label("Could not load UI: " + e.getMessage())));
+            }
+        }, "UiLoader");
+        loader.setDaemon(true);
+        loader.start();
     }
 
     @Override
@@ -38,6 +70,7 @@ public class PeerMain extends Application {
         super.stop();
     }
     public static void main(String[] args) {
+        StartupTiming.mark("main");
         launch();
     }
-}
\ No newline at end of file
+}
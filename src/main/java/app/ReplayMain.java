@@ -0,0 +1,54 @@
+package main.java.app;
+
+import main.java.app.peer.CaptureReplay;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Entry point headless untuk memutar ulang capture protokol.
+ *
+ *   java -Dlokalpedia.capture=session.lpcap main.java.app.PeerMain     (rekam)
+ *   java main.java.app.ReplayMain session.lpcap --speed 10              (putar ulang)
+ *
+ * History hasil replay ditulis ke direktori sementara kecuali --home diberikan,
+ * jadi history user yang asli tidak tersentuh.
+ */
+public class ReplayMain {
+    public static void main(String[] args) throws Exception {
+        File capture = null;
+        double speed = 1.0;
+        String name = "replay";
+        String home = null;
+        boolean verbose = false;
+
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("--speed") && i + 1 < args.length) {
+                speed = Double.parseDouble(args[++i]);
+            } else if (a.equals("--max")) {
+                speed = 0;
+            } else if (a.equals("--name") && i + 1 < args.length) {
+                name = args[++i];
+            } else if (a.equals("--home") && i + 1 < args.length) {
+                home = args[++i];
+            } else if (a.equals("--verbose")) {
+                verbose = true;
+            } else if (!a.startsWith("--") && capture == null) {
+                capture = new File(a);
+            } else {
+                capture = null;
+                break;
+            }
+        }
+        if (capture == null) {
+            System.err.println("Usage: ReplayMain <capture-file> [--speed N | --max] [--name NAME] [--home DIR] [--verbose]");
+            System.exit(2);
+        }
+
+        if (home == null) home = Files.createTempDirectory("lokalpedia-replay").toString();
+        System.setProperty("lokalpedia.home", home);
+
+        new CaptureReplay(capture, speed, name, verbose).run();
+    }
+}
@@ -0,0 +1,43 @@
+package main.java.app;
+
+import main.java.app.peer.Supernode;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point headless untuk mode supernode (tanpa JavaFX).
+ *
+ *   java main.java.app.SupernodeMain --port 7000 --name super-a
+ *   java main.java.app.SupernodeMain --port 7001 --name super-b --link 10.0.0.5:7000
+ *
+ * Backup cukup --link ke primary; leaf mengisi "primary:port,backup:port" di field IP.
+ */
+public class SupernodeMain {
+    public static void main(String[] args) throws Exception {
+        int port = 7000;
+        String name = null;
+        List<InetSocketAddress> links = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (a.equals("--name") && i + 1 < args.length) {
+                name = args[++i];
+            } else if (a.equals("--link") && i + 1 < args.length) {
+                String[] hp = args[++i].split(":");
+                links.add(new InetSocketAddress(hp[0], Integer.parseInt(hp[1])));
+            } else {
+                System.err.println("Usage: SupernodeMain [--port N] [--name NAME] [--link host:port]...");
+                System.exit(2);
+            }
+        }
+        if (name == null) name = "supernode-" + port;
+
+        Supernode node = new Supernode(name, port, links);
+        Runtime.getRuntime().addShutdownHook(new Thread(node::stop));
+        node.run();
+    }
+}
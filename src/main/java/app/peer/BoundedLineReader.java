@@ -0,0 +1,88 @@
+package main.java.app.peer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pengganti BufferedReader.readLine dengan batas panjang baris. Buffer baris
+ * hanya membesar sesuai kebutuhan dan dicatat ke Account milik peer, jadi peer
+ * yang mengirim "baris" tanpa newline tidak bisa menghabiskan heap.
+ */
+public class BoundedLineReader {
+    private static final int INITIAL_LINE = 1024;
+
+    private final InputStream in;
+    private final long maxLine;
+    private final MemoryBudget.Account account;
+
+    private final byte[] buf = new byte[8192];
+    private int pos = 0;
+    private int limit = 0;
+
+    private byte[] line = new byte[INITIAL_LINE];
+
+    public BoundedLineReader(InputStream in, long maxLine, MemoryBudget.Account account) {
+        this.in = in;
+        this.maxLine = maxLine;
+        this.account = account;
+        account.tryReserve(buf.length + line.length);
+    }
+
+    /** @return baris tanpa newline, atau null kalau stream habis */
+    public String readLine() throws IOException {
+        int len = 0;
+        while (true) {
+            if (pos >= limit) {
+                limit = in.read(buf, 0, buf.length);
+                pos = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return (len > 0) ? decode(len) : null;
+                }
+            }
+
+            // salin sampai newline atau akhir buffer
+            int start = pos;
+            while (pos < limit && buf[pos] != '\n') pos++;
+            int n = pos - start;
+
+            if (len + n > maxLine) {
+                throw new IOException("Line exceeds " + maxLine + " bytes");
+            }
+            ensureCapacity(len + n);
+            System.arraycopy(buf, start, line, len, n);
+            len += n;
+
+            if (pos < limit) {
+                pos++; // lewati '\n'
+                return decode(len);
+            }
+        }
+    }
+
+    private void ensureCapacity(int needed) throws IOException {
+        if (needed <= line.length) return;
+        int size = (int) Math.min(maxLine, Math.max(needed, (long) line.length * 2));
+        try {
+            account.reserve(size - line.length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for buffer space");
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        byte[] bigger = new byte[size];
+        System.arraycopy(line, 0, bigger, 0, line.length);
+        line = bigger;
+    }
+
+    private String decode(int len) {
+        if (len > 0 && line[len - 1] == '\r') len--;
+        return new String(line, 0, len, StandardCharsets.UTF_8);
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
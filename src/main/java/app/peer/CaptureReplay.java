@@ -0,0 +1,92 @@
+package main.java.app.peer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Putar ulang file capture (WireCapture) ke HeadlessPeer. Frame masuk dari semua
+ * peer diumpankan lewat satu thread dalam urutan capture, jadi hasilnya sama
+ * setiap kali dijalankan; frame keluar hanya dihitung.
+ *
+ * speed 1 = tempo asli, 10 = sepuluh kali lebih cepat, 0 = secepat mungkin.
+ */
+public final class CaptureReplay {
+    private static final long SLOW_FRAME_NS = 10_000_000;
+
+    private final File capture;
+    private final double speed;
+    private final HeadlessPeer peer;
+
+    public CaptureReplay(File capture, double speed, String localName, boolean verbose) {
+        this.capture = capture;
+        this.speed = speed;
+        this.peer = new HeadlessPeer(localName, verbose);
+    }
+
+    public void run() throws IOException {
+        Map<Integer, PeerConnection> conns = new HashMap<>();
+        long inbound = 0, outbound = 0, slow = 0;
+        long maxHandle = 0, maxLag = 0, totalHandle = 0;
+        String slowest = null;
+        long captureNanos = 0;
+
+        long start = System.nanoTime();
+        try (WireCapture.Reader r = new WireCapture.Reader(capture)) {
+            System.out.println("[Replay] " + capture + " (captured " + new java.util.Date(r.getStartMillis()) + ", speed " + (speed > 0 ? speed + "x" : "max") + ")");
+
+            while (r.next()) {
+                captureNanos = r.offsetNanos;
+                if (r.kind == WireCapture.PEER) {
+                    conns.put(r.peer, PeerConnection.forReplay(r.payload + "#" + r.peer, peer));
+                    continue;
+                }
+                if (r.kind == WireCapture.OUT) {
+                    outbound++;
+                    continue;
+                }
+                if (r.kind != WireCapture.IN) continue;
+
+                PeerConnection pc = conns.computeIfAbsent(r.peer, id -> PeerConnection.forReplay("peer#" + id, peer));
+
+                if (speed > 0) {
+                    long due = start + (long) (r.offsetNanos / speed);
+                    long now = System.nanoTime();
+                    if (due > now) LockSupport.parkNanos(due - now);
+                    else maxLag = Math.max(maxLag, now - due);
+                }
+
+                long t0 = System.nanoTime();
+                pc.replayLine(r.payload);
+                long took = System.nanoTime() - t0;
+
+                inbound++;
+                totalHandle += took;
+                if (took > SLOW_FRAME_NS) slow++;
+                if (took > maxHandle) {
+                    maxHandle = took;
+                    slowest = abbreviate(r.payload) + " @" + (r.offsetNanos / 1_000_000) + " ms";
+                }
+            }
+        } finally {
+            for (PeerConnection pc : conns.values()) pc.close();
+            peer.close();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("[Replay] " + inbound + " inbound frames (" + outbound + " outbound in capture) from " + conns.size() + " peers");
+        System.out.printf("[Replay] capture span %.1f s, replayed in %.1f s, %.0f frames/s%n",
+                captureNanos / 1e9, elapsed / 1e9, inbound / Math.max(elapsed / 1e9, 1e-9));
+        System.out.printf("[Replay] handler avg %.3f ms, max %.3f ms, %d frames over %d ms%n",
+                inbound == 0 ? 0 : totalHandle / 1e6 / inbound, maxHandle / 1e6, slow, SLOW_FRAME_NS / 1_000_000);
+        if (slowest != null) System.out.println("[Replay] slowest frame: " + slowest);
+        if (speed > 0) System.out.printf("[Replay] max lag behind schedule %.1f ms%n", maxLag / 1e6);
+        System.out.println("[Replay] events " + peer.getCounts() + (peer.getFileBytes() > 0 ? ", file bytes " + peer.getFileBytes() : ""));
+    }
+
+    private static String abbreviate(String frame) {
+        return frame.length() <= 80 ? frame : frame.substring(0, 77) + "...";
+    }
+}
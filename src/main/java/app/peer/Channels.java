@@ -0,0 +1,74 @@
+package main.java.app.peer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Channel di atas satu koneksi per peer.
+ *
+ *   CH|channel|frame   -> CHAT / HIST / SYNC / SYNCMORE / SYNCEND / TYPE / STOPTYPE untuk channel itu
+ *   SUB|channel        -> kirimi saya traffic channel ini
+ *   UNSUB|channel
+ *
+ * Channel default ("general") tetap pakai frame lama tanpa amplop dan selalu
+ * dianggap di-subscribe, jadi peer / supernode versi lama tetap nyambung.
+ */
+final class Channels {
+    static final String DEFAULT = "general";
+    // batas per peer supaya SUB tidak bisa dipakai buat menghabiskan memori
+    static final int MAX_PER_PEER = 64;
+
+    private Channels() {}
+
+    static String normalize(String name) {
+        return (name == null) ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static boolean isValid(String name) {
+        if (name == null || name.isEmpty() || name.length() > 32) return false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_')) return false;
+        }
+        return true;
+    }
+
+    static String wrap(String channel, String frame) {
+        return DEFAULT.equals(channel) ? frame : "CH|" + channel + "|" + frame;
+    }
+
+    /** LineSink yang membungkus setiap frame ke channel tertentu (dipakai RoomSync). */
+    static LineSink sink(String channel, LineSink out) {
+        return DEFAULT.equals(channel) ? out : line -> out.sendLine(wrap(channel, line));
+    }
+
+    // channel yang di-join user, diingat antar sesi (default tidak ikut ditulis)
+    static Set<String> loadJoined(String owner) {
+        Set<String> joined = new LinkedHashSet<>();
+        joined.add(DEFAULT);
+        File f = file(owner);
+        if (!f.exists()) return joined;
+        try {
+            for (String line : Files.readAllLines(f.toPath(), StandardCharsets.UTF_8)) {
+                String c = normalize(line);
+                if (isValid(c)) joined.add(c);
+            }
+        } catch (IOException ignored) {}
+        return joined;
+    }
+
+    static void saveJoined(String owner, Collection<String> joined) {
+        List<String> lines = new ArrayList<>();
+        for (String c : joined) if (!DEFAULT.equals(c)) lines.add(c);
+        try {
+            Files.write(file(owner).toPath(), lines, StandardCharsets.UTF_8);
+        } catch (IOException ignored) {}
+    }
+
+    private static File file(String owner) {
+        return new File(ChatHistory.baseDir(), "channels-" + ChatHistory.safeName(owner));
+    }
+}
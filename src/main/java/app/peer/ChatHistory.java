@@ -0,0 +1,234 @@
+package main.java.app.peer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Riwayat chat lokal + vector clock per origin, satu instance per channel.
+ * Disimpan append-only di ~/.lokalpedia/history-<user>.log supaya peer yang
+ * rejoin cukup minta delta sejak clock terakhirnya. Index pencarian
+ * (history-<user>.idx) ikut di-update setiap ada pesan baru.
+ */
+public class ChatHistory {
+    public static final int PAGE_SIZE = 200;
+
+    private final String owner;
+    private final String channel;
+    private final File file;
+    private final File indexFile;
+    private ChatSearchIndex index;
+
+    // urutan kedatangan; index dipakai sebagai cursor paging SYNC
+    private final List<ChatMessage> messages = new ArrayList<>();
+    private final Set<String> keys = new HashSet<>();
+    // origin -> seq tertinggi yang kontigu (1..n sudah ada semua)
+    private final Map<String, Long> clock = new HashMap<>();
+    // origin -> seq tertinggi yang pernah terlihat
+    private final Map<String, Long> maxSeq = new HashMap<>();
+    private final Map<String, Set<Long>> aboveGap = new HashMap<>();
+
+    private BufferedWriter log;
+
+    private ChatHistory(String owner, String channel, File file, File indexFile) {
+        this.owner = owner;
+        this.channel = channel;
+        this.file = file;
+        this.indexFile = indexFile;
+    }
+
+    public static File baseDir() {
+        String home = System.getProperty("lokalpedia.home");
+        File dir = (home != null) ? new File(home) : new File(System.getProperty("user.home"), ".lokalpedia");
+        if (!dir.exists()) dir.mkdirs();
+        return dir;
+    }
+
+    // username terakhir yang dipakai, supaya history-nya bisa di-load waktu startup
+    public static String lastOwner() {
+        File f = new File(baseDir(), "last-user");
+        if (!f.exists()) return null;
+        try {
+            String name = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8).trim();
+            return name.isEmpty() ? null : name;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static void rememberOwner(String owner) {
+        try {
+            Files.write(new File(baseDir(), "last-user").toPath(), owner.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {}
+    }
+
+    static String safeName(String owner) {
+        return owner.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    public static ChatHistory open(String owner) {
+        return open(owner, Channels.DEFAULT);
+    }
+
+    /** Channel default tetap di history-<user>.log, channel lain di history-<user>~<channel>.log */
+    public static ChatHistory open(String owner, String channel) {
+        String base = "history-" + safeName(owner) + (Channels.DEFAULT.equals(channel) ? "" : "~" + channel);
+        ChatHistory h = new ChatHistory(owner, channel,
+                new File(baseDir(), base + ".log"),
+                new File(baseDir(), base + ".idx"));
+        h.load();
+        return h;
+    }
+
+    private void load() {
+        index = ChatSearchIndex.load(indexFile);
+        if (file.exists()) {
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    ChatMessage m = ChatMessage.fromWire(line);
+                    if (m != null) insert(m);
+                }
+            } catch (IOException ignored) {}
+        }
+        if (index.docCount() > messages.size()) {
+            // index dari history yang lain / terpotong -> bangun ulang
+            index = new ChatSearchIndex();
+            for (int i = 0; i < messages.size(); i++) index.add(i, messages.get(i));
+        }
+        try {
+            log = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        } catch (IOException ignored) {}
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** @return true kalau pesan baru (belum pernah terlihat) */
+    public synchronized boolean add(ChatMessage m) {
+        if (!insert(m)) return false;
+        persist(m);
+        return true;
+    }
+
+    /** Bikin pesan lokal dengan seq berikutnya untuk origin ini. */
+    public synchronized ChatMessage appendLocal(String origin, long hlc, String text) {
+        long seq = maxSeq.getOrDefault(origin, 0L) + 1;
+        ChatMessage m = new ChatMessage(origin, seq, hlc, text);
+        insert(m);
+        persist(m);
+        return m;
+    }
+
+    private boolean insert(ChatMessage m) {
+        if (!keys.add(m.key())) return false;
+        messages.add(m);
+        index.add(messages.size() - 1, m); // no-op untuk ordinal yang sudah ada di file index
+
+        String o = m.getOrigin();
+        if (m.getSeq() > maxSeq.getOrDefault(o, 0L)) maxSeq.put(o, m.getSeq());
+
+        long c = clock.getOrDefault(o, 0L);
+        if (m.getSeq() == c + 1) {
+            c++;
+            Set<Long> pending = aboveGap.get(o);
+            while (pending != null && pending.remove(c + 1)) c++;
+            if (pending != null && pending.isEmpty()) aboveGap.remove(o);
+            clock.put(o, c);
+        } else if (m.getSeq() > c + 1) {
+            aboveGap.computeIfAbsent(o, k -> new HashSet<>()).add(m.getSeq());
+        }
+        return true;
+    }
+
+    private void persist(ChatMessage m) {
+        if (log == null) return;
+        try {
+            log.write(m.toWire());
+            log.write("\n");
+            log.flush();
+        } catch (IOException ignored) {}
+    }
+
+    public synchronized Map<String, Long> vectorClock() {
+        return new HashMap<>(clock);
+    }
+
+    public synchronized int size() {
+        return messages.size();
+    }
+
+    public synchronized ChatMessage get(int ordinal) {
+        return messages.get(ordinal);
+    }
+
+    /** Pesan [from, to) dalam urutan kedatangan. */
+    public synchronized List<ChatMessage> range(int from, int to) {
+        from = Math.max(0, from);
+        to = Math.min(messages.size(), to);
+        return (from >= to) ? new ArrayList<>() : new ArrayList<>(messages.subList(from, to));
+    }
+
+    /** @return ordinal pesan yang cocok, terbaru dulu */
+    public synchronized List<Integer> search(String query, int limit) {
+        return index.search(query, limit);
+    }
+
+    public synchronized List<ChatMessage> tail(int n) {
+        int from = Math.max(0, messages.size() - n);
+        return new ArrayList<>(messages.subList(from, messages.size()));
+    }
+
+    /**
+     * Satu halaman pesan yang belum dimiliki pemegang remoteClock,
+     * mulai dari index cursor. Cursor berikutnya ditulis ke next[0] (-1 kalau habis).
+     */
+    public synchronized List<ChatMessage> missingPage(Map<String, Long> remoteClock, int cursor, int limit, int[] next) {
+        List<ChatMessage> page = new ArrayList<>();
+        int i = Math.max(0, cursor);
+        for (; i < messages.size() && page.size() < limit; i++) {
+            ChatMessage m = messages.get(i);
+            if (m.getSeq() > remoteClock.getOrDefault(m.getOrigin(), 0L)) page.add(m);
+        }
+        next[0] = (i < messages.size()) ? i : -1;
+        return page;
+    }
+
+    public static String encodeClock(Map<String, Long> c) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : c.entrySet()) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(e.getKey()).append(':').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    public static Map<String, Long> decodeClock(String s) {
+        Map<String, Long> c = new HashMap<>();
+        if (s == null || s.isEmpty()) return c;
+        for (String part : s.split(",")) {
+            int idx = part.lastIndexOf(':');
+            if (idx <= 0) continue;
+            try {
+                c.put(part.substring(0, idx), Long.parseLong(part.substring(idx + 1)));
+            } catch (NumberFormatException ignored) {}
+        }
+        return c;
+    }
+
+    public synchronized void close() {
+        try { if (log != null) log.close(); } catch (IOException ignored) {}
+        log = null;
+        if (index != null) index.save(indexFile);
+    }
+}
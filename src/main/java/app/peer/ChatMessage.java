@@ -0,0 +1,72 @@
+package main.java.app.peer;
+
+import java.util.Comparator;
+
+/**
+ * Satu pesan chat yang sudah diberi identitas unik (origin + seq).
+ * Format wire: origin|seq|timestamp|text, timestamp = HybridClock stamp.
+ */
+public class ChatMessage {
+    // urutan tampil: HLC, lalu origin + seq supaya total order sama di semua peer
+    public static final Comparator<ChatMessage> ORDER = Comparator
+            .comparingLong(ChatMessage::getTimestamp)
+            .thenComparing(ChatMessage::getOrigin)
+            .thenComparingLong(ChatMessage::getSeq);
+
+    // stamp lebih kecil dari ini pasti ms biasa dari history lama
+    private static final long LEGACY_MS_LIMIT = 1L << 42;
+
+    private final String origin;
+    private final long seq;
+    private final long timestamp;
+    private final String text;
+
+    public ChatMessage(String origin, long seq, long timestamp, String text) {
+        this.origin = origin;
+        this.seq = seq;
+        this.timestamp = timestamp;
+        this.text = text;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getWallClockMillis() {
+        return HybridClock.physicalOf(timestamp);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String key() {
+        return origin + ":" + seq;
+    }
+
+    public String toWire() {
+        return origin + "|" + seq + "|" + timestamp + "|" + text;
+    }
+
+    // returns null kalau format rusak
+    public static ChatMessage fromWire(String s) {
+        if (s == null) return null;
+        String[] p = s.split("\\|", 4);
+        if (p.length < 4) return null;
+        try {
+            long ts = Long.parseLong(p[2]);
+            if (ts < LEGACY_MS_LIMIT) ts = HybridClock.pack(ts, 0);
+            return new ChatMessage(p[0], Long.parseLong(p[1]), ts, p[3]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package main.java.app.peer;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Inverted index incremental untuk riwayat chat. Dokumen = ordinal pesan di
+ * ChatHistory (urutan kedatangan, append-only), jadi posting list cukup
+ * disimpan sebagai delta varint yang terus bertambah di ujung.
+ *
+ * Disimpan di sebelah file history (history-<user>.idx). File index hanya cache:
+ * kalau hilang / ketinggalan, sisa pesan di-index ulang dari history waktu load.
+ */
+public class ChatSearchIndex {
+    private static final int MAGIC = 0x4C50_4958; // "LPIX"
+    private static final int VERSION = 1;
+    private static final int MAX_TOKEN = 32;
+
+    private final Map<String, Posting> postings = new HashMap<>();
+    private int docCount = 0;
+
+    private static class Posting {
+        byte[] data = new byte[4];
+        int length = 0;
+        int count = 0;
+        int lastDoc = -1;
+
+        void add(int doc) {
+            int delta = doc - lastDoc;
+            lastDoc = doc;
+            count++;
+            // varint: 7 bit per byte, bit tertinggi = masih ada lanjutan
+            while ((delta & ~0x7F) != 0) {
+                append((byte) ((delta & 0x7F) | 0x80));
+                delta >>>= 7;
+            }
+            append((byte) delta);
+        }
+
+        private void append(byte b) {
+            if (length == data.length) data = Arrays.copyOf(data, data.length * 2);
+            data[length++] = b;
+        }
+
+        int[] decode() {
+            int[] docs = new int[count];
+            int doc = -1;
+            int pos = 0;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                doc += delta;
+                docs[i] = doc;
+            }
+            return docs;
+        }
+    }
+
+    public int docCount() {
+        return docCount;
+    }
+
+    /** Ordinal harus naik terus (sama dengan urutan append di history). */
+    public void add(int ordinal, ChatMessage m) {
+        if (ordinal < docCount) return;
+        Set<String> seen = new HashSet<>();
+        tokenize(m.getOrigin(), seen);
+        tokenize(m.getText(), seen);
+        for (String t : seen) {
+            postings.computeIfAbsent(t, k -> new Posting()).add(ordinal);
+        }
+        docCount = ordinal + 1;
+    }
+
+    /**
+     * Semua kata di query harus ada (AND).
+     * @return ordinal pesan yang cocok, terbaru dulu, maksimal limit
+     */
+    public List<Integer> search(String query, int limit) {
+        Set<String> terms = new HashSet<>();
+        tokenize(query, terms);
+        if (terms.isEmpty()) return Collections.emptyList();
+
+        // mulai dari posting list terpendek supaya irisan cepat mengecil
+        List<Posting> lists = new ArrayList<>();
+        for (String t : terms) {
+            Posting p = postings.get(t);
+            if (p == null) return Collections.emptyList();
+            lists.add(p);
+        }
+        lists.sort(Comparator.comparingInt(p -> p.count));
+
+        int[] result = lists.get(0).decode();
+        int size = result.length;
+        for (int i = 1; i < lists.size() && size > 0; i++) {
+            size = intersect(result, size, lists.get(i).decode());
+        }
+
+        List<Integer> hits = new ArrayList<>();
+        for (int i = size - 1; i >= 0 && hits.size() < limit; i--) hits.add(result[i]);
+        return hits;
+    }
+
+    // irisan in-place, dua-duanya terurut naik
+    private static int intersect(int[] a, int aLen, int[] b) {
+        int i = 0, j = 0, out = 0;
+        while (i < aLen && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                a[out++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    static void tokenize(String text, Set<String> out) {
+        if (text == null) return;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = (i < text.length()) ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (sb.length() < MAX_TOKEN) sb.append(Character.toLowerCase(c));
+            } else if (sb.length() > 0) {
+                out.add(sb.toString());
+                sb.setLength(0);
+            }
+        }
+    }
+
+    public void save(File file) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(docCount);
+            out.writeInt(postings.size());
+            for (Map.Entry<String, Posting> e : postings.entrySet()) {
+                Posting p = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeInt(p.count);
+                out.writeInt(p.lastDoc);
+                out.writeInt(p.length);
+                out.write(p.data, 0, p.length);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (file.exists()) file.delete();
+        tmp.renameTo(file);
+    }
+
+    /** @return index dari file, atau index kosong kalau tidak ada / rusak */
+    public static ChatSearchIndex load(File file) {
+        ChatSearchIndex idx = new ChatSearchIndex();
+        if (!file.exists()) return idx;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return new ChatSearchIndex();
+            idx.docCount = in.readInt();
+            int terms = in.readInt();
+            for (int i = 0; i < terms; i++) {
+                Posting p = new Posting();
+                String term = in.readUTF();
+                p.count = in.readInt();
+                p.lastDoc = in.readInt();
+                p.length = in.readInt();
+                p.data = new byte[Math.max(4, p.length)];
+                in.readFully(p.data, 0, p.length);
+                idx.postings.put(term, p);
+            }
+            return idx;
+        } catch (IOException e) {
+            return new ChatSearchIndex();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package main.java.app.peer;
+
+import java.util.*;
+
+/**
+ * Status pengiriman reliable ke satu peer (berdasarkan nama, jadi bertahan
+ * lintas reconnect).
+ *
+ * Frame:
+ *   REL|seq|ack|payload    data + cumulative ack yang ditumpangkan
+ *   ACK|ack                ack saja (juga di PING|ts|ack / PONG|ts|ack)
+ *   RELBASE|stream|base|upTo  dikirim tiap attach; penerima lompat ke base,
+ *                          seq <= upTo adalah replay (bukan pesan live)
+ *
+ * ack = "n:stream", stream = id stream kita yang dilihat lawan dari RELBASE.
+ * Ack untuk stream lain (lawan belum memproses RELBASE kita setelah restart)
+ * diabaikan, supaya seq lama tidak menghapus buffer retransmit yang baru.
+ *
+ * Outbound disimpan di buffer retransmit terbatas (jumlah + kuota MemoryBudget)
+ * sampai di-ack, lalu diputar ulang setelah reconnect. Inbound dibuang kalau seq <= delivered (duplikat).
+ */
+public class DeliveryTracker {
+    private static final int MAX_BUFFER = 1024;
+    private static final int MAX_OUT_OF_ORDER = 1024;
+    private static final int ACK_EVERY = 32;
+
+    private final String remoteName;
+    // id acak per instance tracker; berubah = lawan mulai dari nol
+    private final String streamId = Long.toHexString(new Random().nextLong() & Long.MAX_VALUE);
+
+    // outbound
+    private long nextSeq = 0;
+    private final ArrayDeque<Pending> unacked = new ArrayDeque<>();
+    private volatile PeerConnection conn;
+    private final MemoryBudget.Account memory;
+
+    // inbound
+    private String remoteStream;
+    private long delivered = 0;
+    private boolean inboundReady = false;
+    private long replayUpTo = 0;
+    private final TreeMap<Long, String> outOfOrder = new TreeMap<>();
+    private int sinceAck = 0;
+
+    private static class Pending {
+        final long seq;
+        final String payload;
+
+        Pending(long seq, String payload) {
+            this.seq = seq;
+            this.payload = payload;
+        }
+    }
+
+    public DeliveryTracker(String remoteName) {
+        this.remoteName = remoteName;
+        this.memory = MemoryBudget.GLOBAL.account("retransmit:" + remoteName);
+    }
+
+    public String getRemoteName() {
+        return remoteName;
+    }
+
+    /**
+     * Kirim payload secara reliable. Kalau koneksi sedang putus, payload tetap
+     * masuk buffer dan akan dikirim waktu attach berikutnya.
+     */
+    public void send(String payload) {
+        String frame;
+        PeerConnection c;
+        synchronized (this) {
+            long seq = ++nextSeq;
+            // buffer penuh -> buang yang paling lama; history sync yang menambal
+            while (!unacked.isEmpty() && (unacked.size() >= MAX_BUFFER || !memory.tryReserve(payload.length()))) {
+                memory.release(unacked.removeFirst().payload.length());
+            }
+            // kuota habis sama sekali: tetap dikirim, tapi tidak bisa di-retransmit
+            if (!unacked.isEmpty() || memory.tryReserve(payload.length())) {
+                unacked.addLast(new Pending(seq, payload));
+            }
+            c = conn;
+            frame = "REL|" + seq + "|" + currentAck() + "|" + payload;
+        }
+        // tulis di luar lock supaya reader thread (onAck) tidak ikut tertahan socket
+        if (c != null) c.sendLine(frame);
+    }
+
+    /**
+     * Pasang koneksi baru: kirim RELBASE lalu putar ulang semua yang belum di-ack.
+     * Pesan yang dikirim selama replay ikut terkejar sebelum koneksi dipasang.
+     */
+    public void attach(PeerConnection c) {
+        List<String> frames = new ArrayList<>();
+        long sentUpTo;
+        synchronized (this) {
+            conn = null;
+            inboundReady = false;
+            long base = unacked.isEmpty() ? nextSeq : unacked.peekFirst().seq - 1;
+            sentUpTo = nextSeq;
+            frames.add("RELBASE|" + streamId + "|" + base + "|" + sentUpTo);
+            for (Pending p : unacked) frames.add("REL|" + p.seq + "|" + currentAck() + "|" + p.payload);
+        }
+
+        while (true) {
+            for (String f : frames) c.sendLine(f);
+            frames.clear();
+            synchronized (this) {
+                if (nextSeq == sentUpTo) {
+                    conn = c;
+                    return;
+                }
+                for (Pending p : unacked) {
+                    if (p.seq > sentUpTo) frames.add("REL|" + p.seq + "|" + currentAck() + "|" + p.payload);
+                }
+                sentUpTo = nextSeq;
+            }
+        }
+    }
+
+    public synchronized void detach(PeerConnection c) {
+        if (conn == c) conn = null;
+    }
+
+    /** Ack yang kita kirim: seq lawan yang sudah diterima + stream lawan yang dimaksud. */
+    static String ackToken(long delivered, String stream) {
+        return (stream == null) ? String.valueOf(delivered) : delivered + ":" + stream;
+    }
+
+    public synchronized void onAck(String token) {
+        int idx = token.indexOf(':');
+        if (idx < 0 || !token.substring(idx + 1).equals(streamId)) return; // ack untuk stream lain
+        long cumulative;
+        try {
+            cumulative = Long.parseLong(token.substring(0, idx));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (cumulative > nextSeq) return;
+        while (!unacked.isEmpty() && unacked.peekFirst().seq <= cumulative) {
+            memory.release(unacked.removeFirst().payload.length());
+        }
+    }
+
+    public synchronized List<String> onBase(String stream, long base, long upTo) {
+        if (!stream.equals(remoteStream)) {
+            // tracker lawan baru (restart) -> mulai ulang dari base-nya
+            remoteStream = stream;
+            delivered = base;
+            replayUpTo = upTo;
+        } else {
+            // base maju = lawan sudah membuang pesan dari buffer-nya; history sync yang menambal
+            if (base > delivered) delivered = base;
+            replayUpTo = Math.max(replayUpTo, upTo);
+        }
+        inboundReady = true;
+        return drain(new ArrayList<>());
+    }
+
+    /** true kalau seq ini diputar ulang waktu attach (dikirim sebelum reconnect) */
+    public synchronized boolean isReplay(long seq) {
+        return seq <= replayUpTo;
+    }
+
+    /** @return payload yang siap diproses sesuai urutan (kosong kalau duplikat / menunggu gap) */
+    public synchronized List<String> receive(long seq, String payload) {
+        List<String> ready = new ArrayList<>();
+        sinceAck++;
+
+        if (!inboundReady) {
+            if (outOfOrder.size() < MAX_OUT_OF_ORDER) outOfOrder.put(seq, payload);
+            return ready;
+        }
+
+        if (seq <= delivered) return ready; // duplikat
+
+        if (seq == delivered + 1) {
+            delivered = seq;
+            ready.add(payload);
+            return drain(ready);
+        }
+
+        // gap; tahan sampai yang hilang diretransmit (lewat batas -> buang, nanti dikirim ulang)
+        if (outOfOrder.size() < MAX_OUT_OF_ORDER) outOfOrder.put(seq, payload);
+        return ready;
+    }
+
+    private List<String> drain(List<String> ready) {
+        while (!outOfOrder.isEmpty()) {
+            Map.Entry<Long, String> first = outOfOrder.firstEntry();
+            if (first.getKey() <= delivered) {
+                outOfOrder.pollFirstEntry();
+            } else if (first.getKey() == delivered + 1) {
+                outOfOrder.pollFirstEntry();
+                delivered++;
+                ready.add(first.getValue());
+            } else {
+                break;
+            }
+        }
+        return ready;
+    }
+
+    public synchronized boolean needsAck() {
+        return sinceAck >= ACK_EVERY;
+    }
+
+    /** Ack untuk frame yang akan dikirim; ack terpisah (ACK|) tidak perlu lagi sampai ACK_EVERY frame berikutnya. */
+    public synchronized String currentAck() {
+        sinceAck = 0;
+        return ackToken(delivered, remoteStream);
+    }
+
+    /** Tracker tidak dipakai lagi (disconnect manual / gagal reconnect). */
+    public synchronized void dispose() {
+        unacked.clear();
+        outOfOrder.clear();
+        memory.releaseAll();
+        conn = null;
+    }
+}
@@ -0,0 +1,120 @@
+package main.java.app.peer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Cache file lokal berbasis isi (SHA-256) di ~/.lokalpedia/cache.
+ * Eviction LRU di bawah kuota disk (lokalpedia.cacheQuota, default 1 GB).
+ * Kalau penerima sudah punya hash yang diumumkan pengirim, transfer selesai
+ * tanpa kirim data.
+ */
+public class FileCache {
+    private static final long QUOTA = Long.getLong("lokalpedia.cacheQuota", 1L << 30);
+
+    private static FileCache instance;
+
+    private final File dir;
+    // hash -> ukuran, urut akses (paling lama di depan)
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private FileCache(File dir) {
+        this.dir = dir;
+        if (!dir.exists()) dir.mkdirs();
+
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File f : files) {
+            if (f.getName().endsWith(".tmp")) {
+                f.delete();
+                continue;
+            }
+            entries.put(f.getName(), f.length());
+            totalBytes += f.length();
+        }
+    }
+
+    public static synchronized FileCache get() {
+        if (instance == null) instance = new FileCache(new File(ChatHistory.baseDir(), "cache"));
+        return instance;
+    }
+
+    /** @return file di cache, atau null kalau belum ada */
+    public synchronized File lookup(String hash) {
+        // get(), bukan containsKey(): hanya get yang memindahkan entry ke ujung urutan LRU
+        if (hash == null || entries.get(hash) == null) return null;
+        File f = new File(dir, hash);
+        if (!f.exists()) {
+            totalBytes -= entries.remove(hash);
+            return null;
+        }
+        f.setLastModified(System.currentTimeMillis());
+        return f;
+    }
+
+    /** Salin isi source ke cache dengan nama hash-nya. */
+    public void put(String hash, File source) {
+        if (hash == null || source.length() > QUOTA) return;
+        synchronized (this) {
+            if (entries.containsKey(hash)) {
+                entries.get(hash); // refresh urutan LRU
+                return;
+            }
+        }
+
+        File target = new File(dir, hash);
+        File tmp = new File(dir, hash + ".tmp");
+        try {
+            Files.copy(source.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            if (entries.put(hash, target.length()) == null) totalBytes += target.length();
+            evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > QUOTA && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            new File(dir, e.getKey()).delete();
+            totalBytes -= e.getValue();
+            it.remove();
+        }
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String hex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    public static String sha256(File file) throws IOException {
+        MessageDigest md = newDigest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) != -1) md.update(buf, 0, n);
+        }
+        return hex(md.digest());
+    }
+}
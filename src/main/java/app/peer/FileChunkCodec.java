@@ -0,0 +1,87 @@
+package main.java.app.peer;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encode/decode satu chunk file.
+ *
+ *   FILEDATA|crc32|rawLen|enc|base64    enc: r = mentah, z = deflate
+ *   FILEDATA|base64                     format lama, tetap diterima
+ *
+ * Kompresi hanya dipakai kalau hasilnya jelas lebih kecil (screenshot/installer
+ * biasanya sudah terkompres, log teks tidak).
+ */
+public final class FileChunkCodec {
+    private FileChunkCodec() {}
+
+    public static String encode(byte[] raw, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, len);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw, 0, len);
+        deflater.finish();
+        byte[] packed = new byte[len];
+        int packedLen = deflater.deflate(packed);
+        boolean useZ = deflater.finished() && packedLen < len * 9 / 10;
+        deflater.end();
+
+        String b64 = useZ
+                ? Base64.getEncoder().encodeToString(java.util.Arrays.copyOf(packed, packedLen))
+                : Base64.getEncoder().encodeToString(len == raw.length ? raw : java.util.Arrays.copyOf(raw, len));
+        return "FILEDATA|" + Long.toHexString(crc.getValue()) + "|" + len + "|" + (useZ ? "z" : "r") + "|" + b64;
+    }
+
+    /** Perkiraan byte yang dibutuhkan untuk decode payload (tanpa "FILEDATA|"). */
+    public static long decodedSize(String payload) {
+        String[] p = payload.split("\\|", 4);
+        if (p.length < 4) return (payload.length() / 4L) * 3;
+        try {
+            return Math.max(Long.parseLong(p[1]), (p[3].length() / 4L) * 3);
+        } catch (NumberFormatException e) {
+            return (payload.length() / 4L) * 3;
+        }
+    }
+
+    /** @param payload isi setelah "FILEDATA|" */
+    public static byte[] decode(String payload) throws IOException {
+        String[] p = payload.split("\\|", 4);
+        if (p.length < 4) return Base64.getDecoder().decode(payload); // legacy
+
+        int rawLen;
+        long expectedCrc;
+        try {
+            expectedCrc = Long.parseLong(p[0], 16);
+            rawLen = Integer.parseInt(p[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed file chunk header");
+        }
+        byte[] data = Base64.getDecoder().decode(p[3]);
+
+        byte[] raw;
+        if (p[2].equals("z")) {
+            raw = new byte[rawLen];
+            Inflater inflater = new Inflater();
+            inflater.setInput(data);
+            try {
+                if (inflater.inflate(raw) != rawLen) throw new IOException("Short file chunk");
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt file chunk");
+            } finally {
+                inflater.end();
+            }
+        } else {
+            raw = data;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        if (crc.getValue() != expectedCrc) throw new IOException("File chunk checksum mismatch");
+        return raw;
+    }
+}
@@ -0,0 +1,180 @@
+package main.java.app.peer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Kirim satu file ke banyak peer sekaligus dengan sekali baca disk.
+ *
+ *   reader (1 thread, read-ahead WINDOW chunk)
+ *     -> CRC32 + deflate + Base64 paralel di ForkJoinPool
+ *     -> frame yang sama dibagikan ke writer tiap peer (reference count)
+ *
+ * Chunk dilepas begitu semua peer yang masih aktif sudah menulisnya; peer
+ * paling lambat yang menahan reader lewat semaphore window.
+ */
+public class FileSendPipeline {
+    private static final int CHUNK_SIZE = 48 * 1024;
+    private static final int WINDOW = 32;
+
+    private final File file;
+    private final String hash;
+    private final PeerEvents controller;
+    private final ForkJoinPool pool = ForkJoinPool.commonPool();
+    private final Semaphore window = new Semaphore(WINDOW);
+
+    // index = nomor chunk; null setelah semua peer selesai dengannya
+    private final List<Chunk> chunks = new ArrayList<>();
+    private int activeConsumers;
+    private boolean eof = false;
+    private IOException readError;
+
+    private static class Chunk {
+        final CompletableFuture<String> frame;
+        int refs;
+
+        Chunk(CompletableFuture<String> frame, int refs) {
+            this.frame = frame;
+            this.refs = refs;
+        }
+    }
+
+    public FileSendPipeline(File file, String hash, PeerEvents controller) {
+        this.file = file;
+        this.hash = hash;
+        this.controller = controller;
+    }
+
+    public void start(Collection<PeerConnection> peers) {
+        if (peers.isEmpty()) return;
+        activeConsumers = peers.size();
+
+        Thread reader = new Thread(this::produce, "SendFileReader-" + file.getName());
+        reader.setDaemon(true);
+        reader.start();
+
+        for (PeerConnection pc : peers) {
+            new Thread(() -> consume(pc), "SendFile-" + file.getName() + "-" + pc.getRemoteAddress()).start();
+        }
+    }
+
+    private void produce() {
+        try (InputStream in = new FileInputStream(file)) {
+            while (true) {
+                window.acquire();
+
+                byte[] buf = new byte[CHUNK_SIZE];
+                int n = readFully(in, buf);
+                if (n <= 0) {
+                    window.release();
+                    break;
+                }
+
+                final int len = n;
+                synchronized (this) {
+                    if (activeConsumers == 0) {
+                        window.release();
+                        return;
+                    }
+                    chunks.add(new Chunk(CompletableFuture.supplyAsync(() -> FileChunkCodec.encode(buf, len), pool), activeConsumers));
+                    notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                readError = e;
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            synchronized (this) {
+                eof = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buf) throws IOException {
+        int off = 0;
+        while (off < buf.length) {
+            int n = in.read(buf, off, buf.length - off);
+            if (n == -1) break;
+            off += n;
+        }
+        return off;
+    }
+
+    private void consume(PeerConnection pc) {
+        int next = 0;
+        try {
+            String reply = pc.offerFile(file.getName(), file.length(), hash);
+            if (!"FILEWANT".equals(reply)) {
+                if ("FILEHAVE".equals(reply)) {
+                    controller.addMessageBubble("[" + pc.getRemoteName() + " already had " + file.getName() + " (cached)]", false, true);
+                }
+                return;
+            }
+
+            while (true) {
+                Chunk c = awaitChunk(next);
+                if (c == null) break;
+
+                if (!pc.isActive() || pc.isRemoteRejectedFile()) {
+                    // remote cancelled -> stop sending
+                    pc.sendLine("FILEEND");
+                    return;
+                }
+
+                // pacing diatur OutboundScheduler: blok kalau antrian bulk peer ini penuh
+                boolean sent = pc.sendBulk(c.frame.join());
+                release(next);
+                next++;
+                if (!sent) return;
+            }
+
+            IOException err;
+            synchronized (this) {
+                err = readError;
+            }
+            if (err != null) {
+                // file terpotong: jangan sampai penerima menyimpannya sebagai file utuh
+                controller.addMessageBubble("[Error sending file: " + err.getMessage() + "]", false, true);
+                pc.sendLine("FILEABORT");
+                return;
+            }
+
+            // done
+            pc.sendLine("FILEEND");
+        } catch (InterruptedException ignored) {
+        } finally {
+            leave(next);
+        }
+    }
+
+    /** @return chunk ke-i, atau null kalau file sudah habis */
+    private synchronized Chunk awaitChunk(int i) throws InterruptedException {
+        while (chunks.size() <= i && !eof) wait();
+        return (i < chunks.size()) ? chunks.get(i) : null;
+    }
+
+    private synchronized void release(int i) {
+        Chunk c = chunks.get(i);
+        if (c != null && --c.refs == 0) {
+            chunks.set(i, null);
+            window.release();
+        }
+    }
+
+    // peer berhenti (selesai / ditolak / putus): lepas semua chunk yang belum dia tulis
+    private synchronized void leave(int from) {
+        activeConsumers--;
+        for (int i = from; i < chunks.size(); i++) release(i);
+    }
+}
@@ -0,0 +1,199 @@
+package main.java.app.peer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PeerEvents tanpa UI untuk CaptureReplay. Menjalankan bagian yang mahal dari
+ * controller asli (simpan history + index, jawab SYNC, decode chunk file,
+ * DeliveryTracker per peer untuk REL/RELBASE/ACK, relay ke peer lain)
+ * dan menghitung event, tapi tidak merender apa pun.
+ */
+final class HeadlessPeer implements PeerEvents {
+    private final String name;
+    private final Map<String, ChatHistory> histories = new HashMap<>();
+    private final RoomRoster roster = new RoomRoster();
+    private final HybridClock clock = new HybridClock();
+    private final Map<String, Long> counts = new TreeMap<>();
+    // sama seperti controller: tracker per nama bertahan lintas reconnect
+    private final Map<String, DeliveryTracker> deliveries = new ConcurrentHashMap<>();
+    private final Map<String, PeerConnection> peers = new ConcurrentHashMap<>();
+    private long fileBytes = 0;
+    private final boolean verbose;
+
+    HeadlessPeer(String name, boolean verbose) {
+        this.name = name;
+        this.verbose = verbose;
+        histories.put(Channels.DEFAULT, ChatHistory.open(name));
+        roster.join(name);
+    }
+
+    private synchronized void count(String event) {
+        counts.merge(event, 1L, Long::sum);
+    }
+
+    synchronized Map<String, Long> getCounts() {
+        return new TreeMap<>(counts);
+    }
+
+    synchronized long getFileBytes() {
+        return fileBytes;
+    }
+
+    private synchronized ChatHistory history(String channel) {
+        return histories.computeIfAbsent(channel, c -> ChatHistory.open(name, c));
+    }
+
+    synchronized void close() {
+        for (ChatHistory h : histories.values()) h.close();
+        for (DeliveryTracker t : deliveries.values()) t.dispose();
+    }
+
+    @Override
+    public String getLocalUsernameSafe() {
+        return name;
+    }
+
+    @Override
+    public void addMessageBubble(String message, boolean isOwnMessage, boolean isServerMessage) {
+        count("bubble");
+        if (verbose) System.out.println(message);
+    }
+
+    @Override
+    public void onPeerHandshake(String remoteName, PeerConnection conn) {
+        count("handshake");
+        synchronized (roster) {
+            roster.join(remoteName);
+        }
+        peers.put(remoteName, conn);
+
+        DeliveryTracker tracker = deliveries.computeIfAbsent(remoteName, DeliveryTracker::new);
+        conn.setDelivery(tracker);
+        tracker.attach(conn);
+    }
+
+    @Override
+    public void onPeerClosed(PeerConnection conn) {
+        count("closed");
+        synchronized (roster) {
+            roster.leave(conn.getRemoteName());
+        }
+        peers.remove(conn.getRemoteName(), conn);
+
+        DeliveryTracker tracker = conn.getDelivery();
+        if (tracker != null) tracker.detach(conn);
+    }
+
+    @Override
+    public void onPeerMessage(String display, PeerConnection from) {
+        count("legacy-chat");
+    }
+
+    @Override
+    public void onPeerChat(String channel, ChatMessage m, PeerConnection from) {
+        // CHAT yang diputar ulang lewat RELBASE / tertahan gap dihitung terpisah
+        accept(from.isLiveFrame() ? "chat" : "chat-replay", channel, m, from, from.isLiveFrame());
+    }
+
+    @Override
+    public void onHistoryMessage(String channel, ChatMessage m, PeerConnection from) {
+        accept("hist", channel, m, from, false);
+    }
+
+    private void accept(String kind, String channel, ChatMessage m, PeerConnection from, boolean live) {
+        if (!history(channel).add(m)) {
+            count(kind + "-dup");
+            return;
+        }
+        clock.update(m.getTimestamp());
+        count(kind);
+        if (verbose) System.out.println("#" + channel + " " + m.getOrigin() + ": " + m.getText());
+
+        // teruskan ke peer lain lewat tracker-nya, seperti acceptChat di controller
+        String frame = Channels.wrap(channel, (live ? "CHAT|" : "HIST|") + m.toWire());
+        for (DeliveryTracker t : deliveries.values()) {
+            if (t.getRemoteName().equals(from.getRemoteName())) continue;
+            PeerConnection pc = peers.get(t.getRemoteName());
+            if (pc != null && pc.wantsChannel(channel)) {
+                t.send(frame);
+                count("relay");
+            }
+        }
+    }
+
+    @Override
+    public void onSyncRequest(String channel, String rosterId, long rosterVersion, String clock, int cursor, PeerConnection conn) {
+        count("sync-request");
+        boolean general = Channels.DEFAULT.equals(channel);
+        RoomSync.respond(history(channel), general ? roster : null, rosterId, rosterVersion, clock, cursor, Channels.sink(channel, conn));
+    }
+
+    @Override
+    public void onSyncMore(String channel, int cursor, PeerConnection conn) {
+        count("sync-more");
+    }
+
+    @Override
+    public void onSyncEnd(String channel, PeerConnection conn) {
+        count("sync-end");
+    }
+
+    @Override
+    public void onRoster(String rosterId, long version, String delta, PeerConnection conn) {
+        count("roster");
+    }
+
+    @Override
+    public void onRemoteSubscribe(String channel, PeerConnection conn) {
+        count("sub");
+        conn.addRemoteChannel(channel);
+    }
+
+    @Override
+    public void onRemoteUnsubscribe(String channel, PeerConnection conn) {
+        count("unsub");
+        conn.removeRemoteChannel(channel);
+    }
+
+    @Override
+    public void onPeerTyping(String channel, String username, PeerConnection pc) {
+        count("typing");
+    }
+
+    @Override
+    public void onPeerStopTyping(String channel, String username, PeerConnection pc) {
+        count("stop-typing");
+    }
+
+    @Override
+    public void onIncomingFileStart(String fileName, long size, String hash, PeerConnection pc) {
+        count("file-start");
+    }
+
+    @Override
+    public void onIncomingFileData(String payload, PeerConnection pc) {
+        try {
+            byte[] raw = FileChunkCodec.decode(payload);
+            synchronized (this) {
+                fileBytes += raw.length;
+            }
+            count("file-chunk");
+        } catch (IOException e) {
+            count("file-chunk-corrupt");
+        }
+    }
+
+    @Override
+    public void onIncomingFileEnd(PeerConnection pc) {
+        count("file-end");
+    }
+
+    @Override
+    public void onIncomingFileAbort(PeerConnection pc) {
+        count("file-abort");
+    }
+}
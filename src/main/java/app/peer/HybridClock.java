@@ -0,0 +1,77 @@
+package main.java.app.peer;
+
+/**
+ * Hybrid logical clock (physical ms + logical counter) dipacking ke satu long:
+ * 48 bit atas = wall clock ms, 16 bit bawah = counter.
+ * Urutan long-nya sama dengan urutan kausal, jadi bisa langsung dibandingkan.
+ *
+ * Stamp remote yang lebih dari MAX_DRIFT_MS di depan jam kita tidak diikuti
+ * (-Dlokalpedia.maxClockDriftMs, default 60 detik); satu peer dengan jam salah
+ * tidak boleh menyeret jam semua orang.
+ */
+public class HybridClock {
+    private static final int LOGICAL_BITS = 16;
+    private static final long LOGICAL_MASK = (1L << LOGICAL_BITS) - 1;
+    static final long MAX_DRIFT_MS = Long.getLong("lokalpedia.maxClockDriftMs", 60_000);
+
+    private long physical = 0;
+    private long logical = 0;
+
+    /** Stamp untuk event lokal / pesan yang mau dikirim. */
+    public synchronized long now() {
+        long pt = System.currentTimeMillis();
+        if (pt > physical) {
+            physical = pt;
+            logical = 0;
+        } else {
+            logical++;
+        }
+        return current();
+    }
+
+    /** Gabungkan stamp dari pesan yang diterima. */
+    public synchronized long update(long remote) {
+        long pt = System.currentTimeMillis();
+        long rp = physicalOf(remote);
+        long rl = logicalOf(remote);
+
+        if (rp - pt > MAX_DRIFT_MS) {
+            // kelewat jauh di depan: perlakukan seperti event lokal
+            return now();
+        }
+
+        if (pt > physical && pt > rp) {
+            physical = pt;
+            logical = 0;
+        } else if (rp > physical) {
+            physical = rp;
+            logical = rl + 1;
+        } else if (physical > rp) {
+            logical++;
+        } else {
+            logical = Math.max(logical, rl) + 1;
+        }
+        return current();
+    }
+
+    private long current() {
+        if (logical > LOGICAL_MASK) {
+            // counter habis: pinjam 1 ms ke depan
+            physical++;
+            logical = 0;
+        }
+        return pack(physical, logical);
+    }
+
+    public static long pack(long physicalMs, long logical) {
+        return (physicalMs << LOGICAL_BITS) | (logical & LOGICAL_MASK);
+    }
+
+    public static long physicalOf(long hlc) {
+        return hlc >>> LOGICAL_BITS;
+    }
+
+    public static long logicalOf(long hlc) {
+        return hlc & LOGICAL_MASK;
+    }
+}
@@ -0,0 +1,147 @@
+package main.java.app.peer;
+
+import javafx.scene.control.Label;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+
+/**
+ * Satu file yang sedang diterima dari peer. Data langsung di-spool ke
+ * ~/.lokalpedia/incoming dengan kecepatan penuh; keputusan simpan/tolak dari
+ * UI datang kapan saja (sebelum atau sesudah FILEEND). File dipindah ke tujuan
+ * begitu dua-duanya sudah terjadi.
+ */
+public class IncomingTransfer {
+    private final String fileName;
+    private final long size;
+    private final String hash;
+    private final File spool;       // null kalau dilayani dari cache
+    private final File cachedSource;
+    private final MessageDigest digest;
+    private FileOutputStream out;
+    private long received = 0;
+
+    private File destination;
+    private boolean decided = false;
+    private boolean rejected = false;
+    private boolean complete = false;
+    private boolean finished = false;
+    private boolean checksumOk = true;
+
+    // diisi di FX thread
+    Label progressLabel;
+
+    private IncomingTransfer(String fileName, long size, String hash, File spool, File cachedSource) throws IOException {
+        this.fileName = fileName;
+        this.size = size;
+        this.hash = hash;
+        this.spool = spool;
+        this.cachedSource = cachedSource;
+        this.digest = (hash != null && spool != null) ? FileCache.newDigest() : null;
+        this.out = (spool != null) ? new FileOutputStream(spool) : null;
+        this.complete = (spool == null);
+    }
+
+    public static IncomingTransfer spool(String fileName, long size, String hash) throws IOException {
+        File dir = new File(ChatHistory.baseDir(), "incoming");
+        if (!dir.exists()) dir.mkdirs();
+        File spool = File.createTempFile("recv-", ".part", dir);
+        return new IncomingTransfer(fileName, size, hash, spool, null);
+    }
+
+    public static IncomingTransfer fromCache(String fileName, long size, String hash, File cached) throws IOException {
+        return new IncomingTransfer(fileName, size, hash, null, cached);
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public boolean isFromCache() {
+        return cachedSource != null;
+    }
+
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    public synchronized boolean isChecksumOk() {
+        return checksumOk;
+    }
+
+    public synchronized void write(byte[] chunk) throws IOException {
+        if (rejected || out == null) return;
+        out.write(chunk);
+        if (digest != null) digest.update(chunk);
+        received += chunk.length;
+    }
+
+    /** FILEEND diterima. @return true kalau sekarang siap dipindah ke tujuan */
+    public synchronized boolean complete() throws IOException {
+        if (complete) return false;
+        complete = true;
+        closeSpool();
+        if (digest != null) checksumOk = hash.equals(FileCache.hex(digest.digest()));
+        return claimFinish();
+    }
+
+    /** User memilih lokasi simpan. @return true kalau sekarang siap dipindah */
+    public synchronized boolean accept(File destination) {
+        if (decided) return false;
+        decided = true;
+        this.destination = destination;
+        return claimFinish();
+    }
+
+    /**
+     * User menolak / batal.
+     * @return true kalau pengirim masih mengirim dan perlu diberi FILEREJECT
+     */
+    public synchronized boolean reject() {
+        if (decided) return false;
+        decided = true;
+        rejected = true;
+        boolean senderStillSending = !complete;
+        abort();
+        return senderStillSending;
+    }
+
+    private boolean claimFinish() {
+        if (!decided || rejected || !complete || finished) return false;
+        finished = true;
+        return true;
+    }
+
+    /** Pindahkan hasil ke tujuan (jalankan di luar FX thread). */
+    public void finishTo() throws IOException {
+        if (cachedSource != null) {
+            Files.copy(cachedSource.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        Files.move(spool.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (hash != null && checksumOk) FileCache.get().put(hash, destination);
+    }
+
+    /** Koneksi putus / ditolak: buang spool. */
+    public synchronized void abort() {
+        closeSpool();
+        if (spool != null && !finished) spool.delete();
+    }
+
+    private void closeSpool() {
+        try { if (out != null) out.close(); } catch (IOException ignored) {}
+        out = null;
+    }
+}
@@ -0,0 +1,90 @@
+package main.java.app.peer;
+
+import java.util.Locale;
+
+/**
+ * Histogram latensi dalam mikrodetik, bucket log-linear ala HdrHistogram:
+ * 0..63 us tepat, di atasnya tiap pangkat dua dibagi 32 sub-bucket
+ * (error relatif <= ~3%). Ukurannya tetap (~1 K counter) berapa pun sampelnya,
+ * jadi aman dipegang per peer selama koneksi hidup.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;      // 32
+    private static final int LINEAR = SUB_COUNT * 2;          // 0..63 exact
+    private static final int MAX_MSB = 40;                    // ~12 hari dalam us, sisanya di-clamp
+    private static final int BUCKETS = LINEAR + (MAX_MSB - SUB_BITS - 1) * SUB_COUNT;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE, max = 0;
+
+    public synchronized void record(long micros) {
+        if (micros < 0) micros = 0;
+        counts[indexOf(micros)]++;
+        total++;
+        sum += micros;
+        if (micros < min) min = micros;
+        if (micros > max) max = micros;
+    }
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    static int indexOf(long v) {
+        if (v < LINEAR) return (int) v;
+        int msb = 63 - Long.numberOfLeadingZeros(v);
+        if (msb >= MAX_MSB) return BUCKETS - 1;
+        int shift = msb - SUB_BITS;
+        return LINEAR + (shift - 1) * SUB_COUNT + (int) ((v >> shift) - SUB_COUNT);
+    }
+
+    // nilai tertinggi yang masih masuk bucket ini
+    static long highestOf(int index) {
+        if (index < LINEAR) return index;
+        int shift = (index - LINEAR) / SUB_COUNT + 1;
+        long sub = (index - LINEAR) % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /** @param p 0..100; @return mikrodetik, 0 kalau belum ada sampel */
+    public synchronized long percentile(double p) {
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highestOf(i), max);
+        }
+        return max;
+    }
+
+    public synchronized long count() {
+        return total;
+    }
+
+    public synchronized long max() {
+        return max;
+    }
+
+    public synchronized long min() {
+        return (total == 0) ? 0 : min;
+    }
+
+    public synchronized long mean() {
+        return (total == 0) ? 0 : sum / total;
+    }
+
+    /** "p50/p95/p99 ms" ringkas untuk panel diagnostik */
+    public String summary() {
+        if (count() == 0) return "-";
+        return ms(percentile(50)) + "/" + ms(percentile(95)) + "/" + ms(percentile(99)) + " ms";
+    }
+
+    static String ms(long micros) {
+        if (micros < 10_000) return String.format(Locale.ROOT, "%.1f", micros / 1000.0);
+        return String.valueOf(micros / 1000);
+    }
+}
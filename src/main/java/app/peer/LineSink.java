@@ -0,0 +1,8 @@
+package main.java.app.peer;
+
+/**
+ * Sesuatu yang bisa dikirimi satu frame teks protokol (tanpa newline).
+ */
+public interface LineSink {
+    boolean sendLine(String line);
+}
@@ -0,0 +1,92 @@
+package main.java.app.peer;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Alamat lokal mesin ini, dari enumerasi NetworkInterface (tanpa DNS / UDP ke luar,
+ * jadi tetap cepat di jaringan yang tidak punya internet). Hasil di-cache; enumerasi
+ * pertama dijalankan di background lewat {@link #warmUp()} waktu aplikasi start.
+ */
+public final class LocalAddresses {
+    private static volatile CompletableFuture<LocalAddresses> cached;
+
+    private final String primary;
+    private final Set<String> all;
+
+    private LocalAddresses(String primary, Set<String> all) {
+        this.primary = primary;
+        this.all = all;
+    }
+
+    public static CompletableFuture<LocalAddresses> warmUp() {
+        CompletableFuture<LocalAddresses> f = cached;
+        if (f == null) {
+            synchronized (LocalAddresses.class) {
+                if (cached == null) {
+                    cached = CompletableFuture.supplyAsync(LocalAddresses::enumerate);
+                }
+                f = cached;
+            }
+        }
+        return f;
+    }
+
+    public static LocalAddresses get() {
+        return warmUp().join();
+    }
+
+    // panggil kalau interface berubah (pindah wifi, dll)
+    public static void invalidate() {
+        cached = null;
+    }
+
+    /** IPv4 LAN yang paling mungkin dipakai peer lain untuk konek ke kita. */
+    public String primary() {
+        return primary;
+    }
+
+    public boolean isSelf(String host) {
+        return all.contains(host);
+    }
+
+    private static LocalAddresses enumerate() {
+        long start = System.nanoTime();
+        Set<String> all = new HashSet<>(Arrays.asList("127.0.0.1", "0.0.0.0", "localhost", "::1"));
+        String siteLocal = null;
+        String other = null;
+
+        try {
+            Enumeration<NetworkInterface> ifaces = NetworkInterface.getNetworkInterfaces();
+            while (ifaces != null && ifaces.hasMoreElements()) {
+                NetworkInterface ni = ifaces.nextElement();
+                try {
+                    if (!ni.isUp()) continue;
+                } catch (SocketException e) {
+                    continue;
+                }
+                boolean virtual = ni.isVirtual() || ni.isPointToPoint();
+                for (InetAddress a : Collections.list(ni.getInetAddresses())) {
+                    String ip = a.getHostAddress();
+                    int zone = ip.indexOf('%');
+                    all.add(zone >= 0 ? ip.substring(0, zone) : ip);
+
+                    if (!(a instanceof Inet4Address) || a.isLoopbackAddress() || a.isLinkLocalAddress() || virtual) continue;
+                    if (a.isSiteLocalAddress()) {
+                        if (siteLocal == null) siteLocal = ip;
+                    } else if (other == null) {
+                        other = ip;
+                    }
+                }
+            }
+        } catch (SocketException ignored) {}
+
+        String primary = siteLocal != null ? siteLocal : other != null ? other : "127.0.0.1";
+        StartupTiming.mark("network interfaces (" + (System.nanoTime() - start) / 1_000_000 + " ms)");
+        return new LocalAddresses(primary, Collections.unmodifiableSet(all));
+    }
+}
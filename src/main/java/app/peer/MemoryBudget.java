@@ -0,0 +1,103 @@
+package main.java.app.peer;
+
+/**
+ * Anggaran memori global + kuota per peer untuk buffer reader, antrian keluar,
+ * buffer retransmit dan chunk file yang sedang diproses.
+ *
+ * Konfigurasi (system property, dalam byte):
+ *   lokalpedia.memoryBudget  total semua peer         (default 256 MB)
+ *   lokalpedia.peerQuota     maksimum per peer        (default 16 MB)
+ *   lokalpedia.maxLineBytes  panjang maksimum 1 frame (default 1 MB)
+ *
+ * reserve() memblok sampai ada ruang. Dipanggil dari thread reader peer itu
+ * sendiri, jadi peer yang boros otomatis berhenti dibaca (TCP backpressure)
+ * alih-alih bikin hub kehabisan memori.
+ */
+public class MemoryBudget {
+    public static final long MAX_LINE_BYTES = Long.getLong("lokalpedia.maxLineBytes", 1L << 20);
+
+    public static final MemoryBudget GLOBAL = new MemoryBudget(
+            Long.getLong("lokalpedia.memoryBudget", 256L << 20),
+            Long.getLong("lokalpedia.peerQuota", 16L << 20));
+
+    private final long limit;
+    private final long peerQuota;
+    private long used = 0;
+
+    public MemoryBudget(long limit, long peerQuota) {
+        this.limit = limit;
+        this.peerQuota = peerQuota;
+    }
+
+    public Account account(String owner) {
+        return new Account(owner);
+    }
+
+    public synchronized long used() {
+        return used;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getPeerQuota() {
+        return peerQuota;
+    }
+
+    public class Account {
+        private final String owner;
+        private long held = 0;
+
+        private Account(String owner) {
+            this.owner = owner;
+        }
+
+        /** Ambil tanpa menunggu; false kalau kuota peer atau anggaran global penuh. */
+        public boolean tryReserve(long bytes) {
+            synchronized (MemoryBudget.this) {
+                if (!fits(bytes)) return false;
+                held += bytes;
+                used += bytes;
+                return true;
+            }
+        }
+
+        /**
+         * Ambil, menunggu sampai ada yang di-release (flow control).
+         * Permintaan yang lebih besar dari kuota langsung ditolak.
+         */
+        public void reserve(long bytes) throws InterruptedException {
+            if (bytes > peerQuota || bytes > limit) {
+                throw new IllegalArgumentException(owner + " requested " + bytes + " bytes, quota is " + peerQuota);
+            }
+            synchronized (MemoryBudget.this) {
+                while (!fits(bytes)) MemoryBudget.this.wait(1000);
+                held += bytes;
+                used += bytes;
+            }
+        }
+
+        public void release(long bytes) {
+            synchronized (MemoryBudget.this) {
+                long r = Math.min(bytes, held);
+                held -= r;
+                used -= r;
+                MemoryBudget.this.notifyAll();
+            }
+        }
+
+        /** Kembalikan semua yang masih dipegang (waktu koneksi ditutup). */
+        public void releaseAll() {
+            synchronized (MemoryBudget.this) {
+                used -= held;
+                held = 0;
+                MemoryBudget.this.notifyAll();
+            }
+        }
+
+        private boolean fits(long bytes) {
+            return held + bytes <= peerQuota && used + bytes <= limit;
+        }
+    }
+}
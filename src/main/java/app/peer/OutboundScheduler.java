@@ -0,0 +1,295 @@
+package main.java.app.peer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+
+/**
+ * Antrian keluar satu PeerConnection dengan satu thread penulis.
+ *
+ *   CONTROL (PING/PONG/ACK/HELLO/...)  -> selalu duluan
+ *   CHAT, TYPING, BULK                 -> deficit round robin berbobot 8 : 2 : 1 (byte)
+ *
+ * Hanya BULK (FILEINFO/FILEDATA, HIST) yang ditahan token bucket per peer dan global;
+ * chat tetap dicatat ke bucket supaya bulk yang mengalah. Batas bulk per peer
+ * disetel ulang dari RTT PING/PONG: antrian di jalur membuat RTT naik di atas
+ * RTT minimum, lalu rate diturunkan (AIMD berbasis delay).
+ *
+ * Urutan hanya dijamin di dalam satu kelas, jadi frame yang harus urut
+ * (FILEINFO..FILEEND, HIST..SYNCEND, REL) selalu satu kelas. FILEINFO ikut BULK
+ * supaya tidak mendahului FILEDATA file sebelumnya yang masih antri.
+ */
+public class OutboundScheduler {
+    public static final int CONTROL = 0;
+    public static final int CHAT = 1;
+    public static final int TYPING = 2;
+    public static final int BULK = 3;
+
+    private static final int[] WEIGHT = {0, 8, 2, 1};
+    private static final int QUANTUM = 16 * 1024;
+    private static final int MAX_TYPING_QUEUED = 16;
+    // sendBulk menunggu di atas ini, supaya file tidak numpuk di memori
+    private static final long BULK_QUEUE_LIMIT = 256 * 1024;
+
+    // upload total semua peer, -Dlokalpedia.uploadKBps
+    static final TokenBucket GLOBAL = TokenBucket.fromProperty("lokalpedia.uploadKBps");
+    private static final long PEER_LIMIT = Long.getLong("lokalpedia.peerUploadKBps", 0) * 1024;
+
+    // adaptif
+    private static final long MIN_RATE = 32 * 1024;
+    private static final long INITIAL_RATE = 4L << 20;
+    private static final long TARGET_QUEUE_DELAY_NS = 25_000_000;
+    private static final long MIN_RTT_WINDOW_NS = 30_000_000_000L;
+    static final long PROBE_INTERVAL_NS = 200_000_000;
+
+    private final Writer out;
+    private final MemoryBudget.Account memory;
+    private final Runnable onWriteError;
+    private final Runnable probe;
+    private final TokenBucket peerBucket = new TokenBucket(PEER_LIMIT, Math.max(64 * 1024, PEER_LIMIT / 4));
+    private final Thread writerThread;
+
+    private final ArrayDeque<String>[] queues;
+    private final long[] deficit = new long[4];
+    private final long[] queuedBytes = new long[4];
+    private int current = CHAT;
+    private boolean closed = false;
+
+    // statistik, dibaca UI diagnostik
+    private long adaptiveRate = INITIAL_RATE;
+    private long minRtt = 0, minRttAt = 0, srtt = 0;
+    private long lastProbe = 0;
+    private long rateWindowStart = System.nanoTime(), rateWindowBytes = 0;
+    private double throughput = 0; // byte/detik bulk yang benar-benar terkirim
+
+    @SuppressWarnings("unchecked")
+    OutboundScheduler(Writer out, MemoryBudget.Account memory, String label, Runnable onWriteError, Runnable probe) {
+        this.out = out;
+        this.memory = memory;
+        this.onWriteError = onWriteError;
+        this.probe = probe;
+        queues = (ArrayDeque<String>[]) new ArrayDeque<?>[4];
+        for (int i = 0; i < queues.length; i++) queues[i] = new ArrayDeque<>();
+
+        writerThread = new Thread(this::writeLoop, "PeerWriter-" + label);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    static int classify(String frame) {
+        String f = frame;
+        if (f.startsWith("CH|")) {
+            int i = f.indexOf('|', 3);
+            if (i > 0) f = f.substring(i + 1);
+        }
+        if (f.startsWith("FILEINFO|") || f.startsWith("FILEDATA|") || f.startsWith("FILEEND") || f.startsWith("FILEABORT")
+                || f.startsWith("HIST|") || f.startsWith("SYNCMORE|") || f.startsWith("SYNCEND|")) return BULK;
+        if (f.startsWith("TYPE|") || f.startsWith("STOPTYPE|")) return TYPING;
+        if (f.startsWith("CHAT|") || f.startsWith("REL|")) return CHAT;
+        if (f.startsWith("PING|") || f.startsWith("PONG|") || f.startsWith("ACK|") || f.startsWith("HELLO|")
+                || f.startsWith("BYE|") || f.startsWith("RELBASE|") || f.startsWith("SUB|") || f.startsWith("UNSUB|")
+                || f.startsWith("SYNC|") || f.startsWith("ROSTER|") || f.startsWith("FILE")) return CONTROL;
+        return CHAT; // legacy teks biasa
+    }
+
+    /** @return false kalau sudah ditutup atau memori peer habis */
+    public boolean enqueue(String frame) {
+        int cls = classify(frame);
+        long size = frame.length() + 1;
+        synchronized (this) {
+            if (closed) return false;
+            if (cls == TYPING && queues[TYPING].size() >= MAX_TYPING_QUEUED) return true; // boleh hilang
+            if (!memory.tryReserve(size)) {
+                if (cls == TYPING) return true;
+                closed = true;
+                notifyAll();
+            } else {
+                queues[cls].addLast(frame);
+                queuedBytes[cls] += size;
+                notifyAll();
+                return true;
+            }
+        }
+        // antrian peer ini melewati kuota: lawan terlalu lambat, putuskan (nanti rejoin + SYNC)
+        onWriteError.run();
+        return false;
+    }
+
+    /** Enqueue BULK dengan backpressure: blok selama antrian bulk penuh. */
+    public boolean enqueueBulk(String frame) throws InterruptedException {
+        synchronized (this) {
+            while (!closed && queuedBytes[BULK] > BULK_QUEUE_LIMIT) wait(500);
+            if (closed) return false;
+        }
+        return enqueue(frame);
+    }
+
+    private synchronized String take() throws InterruptedException {
+        while (true) {
+            if (!queues[CONTROL].isEmpty()) return poll(CONTROL);
+            if (closed) return null;
+
+            long shapingWait = 0;
+            boolean any = false;
+            for (int visits = 0; visits < 3 * 64; visits++) {
+                ArrayDeque<String> q = queues[current];
+                if (q.isEmpty()) {
+                    deficit[current] = 0;
+                    advance();
+                    continue;
+                }
+                any = true;
+                long size = q.peekFirst().length() + 1;
+                if (deficit[current] < size) {
+                    advance();
+                    continue;
+                }
+                if (current == BULK) {
+                    long d = Math.max(peerBucket.delayNanos(size), GLOBAL.delayNanos(size));
+                    if (d > 0) {
+                        shapingWait = d;
+                        if (queues[CHAT].isEmpty() && queues[TYPING].isEmpty()) break;
+                        advance();
+                        continue;
+                    }
+                }
+                deficit[current] -= size;
+                return poll(current);
+            }
+
+            if (!any) {
+                wait();
+            } else if (shapingWait > 0) {
+                wait(Math.max(1, shapingWait / 1_000_000));
+            }
+        }
+    }
+
+    private void advance() {
+        current = (current == BULK) ? CHAT : current + 1;
+        if (!queues[current].isEmpty()) deficit[current] += (long) QUANTUM * WEIGHT[current];
+    }
+
+    private String poll(int cls) {
+        String f = queues[cls].pollFirst();
+        long size = f.length() + 1;
+        queuedBytes[cls] -= size;
+        memory.release(size);
+        if (cls != CONTROL) {
+            peerBucket.consume(size);
+            GLOBAL.consume(size);
+        }
+        if (cls == BULK) {
+            rateWindowBytes += size;
+            notifyAll(); // enqueueBulk yang menunggu
+        }
+        return f;
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                String f = take();
+                if (f == null) break;
+                out.write(f);
+                out.write("\n");
+
+                boolean idle;
+                boolean wantProbe = false;
+                synchronized (this) {
+                    idle = isEmpty();
+                    long now = System.nanoTime();
+                    if (queuedBytes[BULK] > 0 && now - lastProbe >= PROBE_INTERVAL_NS) {
+                        lastProbe = now;
+                        wantProbe = true;
+                    }
+                    updateThroughput(now);
+                }
+                // flush hanya kalau antrian kosong: chat beruntun cukup sekali flush
+                if (idle) out.flush();
+                if (wantProbe) probe.run();
+            }
+            out.flush();
+        } catch (IOException e) {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            onWriteError.run();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private boolean isEmpty() {
+        for (ArrayDeque<String> q : queues) if (!q.isEmpty()) return false;
+        return true;
+    }
+
+    private void updateThroughput(long now) {
+        long span = now - rateWindowStart;
+        if (span < 500_000_000L) return;
+        double sample = rateWindowBytes * 1e9 / span;
+        throughput = (throughput == 0) ? sample : throughput * 0.7 + sample * 0.3;
+        rateWindowStart = now;
+        rateWindowBytes = 0;
+    }
+
+    /**
+     * Satu sampel RTT dari PONG. Selagi ada bulk: delay antrian (srtt - minRtt)
+     * di atas target -> rate dikali 0.75, di bawah -> naik 1/8, dibatasi 2x
+     * throughput yang benar-benar tercapai supaya tidak naik tanpa batas.
+     */
+    synchronized void onRtt(long rttNanos) {
+        long now = System.nanoTime();
+        if (minRtt == 0 || rttNanos < minRtt || now - minRttAt > MIN_RTT_WINDOW_NS) {
+            minRtt = rttNanos;
+            minRttAt = now;
+        }
+        srtt = (srtt == 0) ? rttNanos : (srtt * 7 + rttNanos) / 8;
+
+        if (queuedBytes[BULK] == 0) return;
+        if (!peerBucket.isLimited()) {
+            // sampel pertama selagi bulk jalan: mulai dari yang sudah terbukti tercapai
+            adaptiveRate = Math.max(INITIAL_RATE, (long) (throughput * 2));
+        }
+        long queueDelay = srtt - minRtt;
+        if (queueDelay > Math.max(TARGET_QUEUE_DELAY_NS, minRtt)) {
+            adaptiveRate = Math.max(MIN_RATE, adaptiveRate * 3 / 4);
+        } else {
+            long next = adaptiveRate + Math.max(MIN_RATE, adaptiveRate / 8);
+            if (throughput > 0) next = Math.min(next, Math.max((long) (throughput * 2), MIN_RATE));
+            adaptiveRate = Math.max(adaptiveRate, next);
+        }
+        peerBucket.setRate(PEER_LIMIT > 0 ? Math.min(PEER_LIMIT, adaptiveRate) : adaptiveRate);
+    }
+
+    /** Tutup antrian; frame CONTROL yang tersisa (mis. BYE) masih ditulis sampai timeout. */
+    void close(long drainMillis) {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            for (int c = CHAT; c <= BULK; c++) {
+                memory.release(queuedBytes[c]);
+                queues[c].clear();
+                queuedBytes[c] = 0;
+            }
+            notifyAll();
+        }
+        try {
+            writerThread.join(drainMillis);
+        } catch (InterruptedException ignored) {}
+        writerThread.interrupt();
+    }
+
+    public synchronized long getSmoothedRttNanos() {
+        return srtt;
+    }
+
+    public synchronized long getBulkRate() {
+        return peerBucket.getRate();
+    }
+
+    public synchronized double getThroughput() {
+        return throughput;
+    }
+}
@@ -2,18 +2,27 @@ package main.java.app.peer;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.Arrays;
-import java.util.Base64;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
-public class PeerConnection {
-    private final Socket socket;
-    private final PeerController controller;
-    private BufferedReader reader;
+public class PeerConnection implements LineSink {
+    private final Socket socket; // null untuk koneksi replay
+    private final String label;
+    private final PeerEvents controller;
+    private BoundedLineReader reader;
     private BufferedWriter writer;
+    private final OutboundScheduler outbound;
+    private final MemoryBudget.Account memory;
 
     private volatile boolean active = true;
     private String remoteName = "Unknown";
+    private String remoteRole = "";
     private final AtomicLong lastSeen = new AtomicLong(System.currentTimeMillis());
 
     private static final long PING_INTERVAL_MS = 10_000;
@@ -23,20 +32,73 @@ public class PeerConnection {
     private Thread monitorThread;
     // inside class PeerConnection
     private volatile boolean remoteRejectedFile = false; // set true when remote sends FILEREJECT
+    // jawaban penerima atas FILEINFO: FILEHAVE / FILEWANT / FILEREJECT
+    private final LinkedBlockingQueue<String> fileReplies = new LinkedBlockingQueue<>();
+    private static final long FILE_REPLY_TIMEOUT_MS = 5 * 60_000;
+    private volatile DeliveryTracker delivery; // dipasang controller setelah handshake
+    // channel yang diminta lawan lewat SUB; default selalu ikut
+    private final Set<String> remoteChannels = ConcurrentHashMap.newKeySet();
+    private final int captureId;
+    // PING yang belum dibalas: ts di frame -> System.nanoTime() saat dikirim
+    private final Map<Long, Long> pingsInFlight = new ConcurrentHashMap<>();
+    // telemetri untuk panel diagnostik: RTT dari PING/PONG, latensi chat dari HLC pengirim
+    private final LatencyHistogram rttHistogram = new LatencyHistogram();
+    private final LatencyHistogram chatLatency = new LatencyHistogram();
+    private final AtomicLong skewedChats = new AtomicLong();
+    // false selama memproses frame replay REL / yang tertahan; hanya reader thread
+    private boolean liveFrame = true;
+
+
+    public PeerConnection(Socket socket, PeerEvents controller) throws IOException {
+        this(socket, new byte[0], null, controller);
+    }
 
-
-    public PeerConnection(Socket socket, PeerController controller) throws IOException {
+    /**
+     * prefix = byte yang sudah dibaca PeerListener sebelum koneksi diserahkan (baris HELLO dst).
+     * greeting (HELLO kita) masuk antrian sebelum reader jalan, jadi pasti terkirim
+     * sebelum RELBASE/SUB/SYNC yang dipicu HELLO lawan di prefix.
+     */
+    public PeerConnection(Socket socket, byte[] prefix, String greeting, PeerEvents controller) throws IOException {
         this.socket = socket;
+        this.label = String.valueOf(socket.getRemoteSocketAddress());
         this.controller = controller;
 
-        reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+        this.memory = MemoryBudget.GLOBAL.account("peer:" + label);
+        this.captureId = WireCapture.newPeer(label);
+        InputStream in = socket.getInputStream();
+        if (prefix.length > 0) in = new SequenceInputStream(new ByteArrayInputStream(prefix), in);
+        reader = new BoundedLineReader(in, MemoryBudget.MAX_LINE_BYTES, memory);
+        this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        this.outbound = new OutboundScheduler(writer, memory, label, this::abortSocket, this::sendPing);
 
+        if (greeting != null) sendLine(greeting);
         startReader();
         startPingSender();
         startMonitor();
     }
 
+    // koneksi tanpa socket untuk replay: tanpa thread, frame masuk lewat replayLine
+    private PeerConnection(String label, PeerEvents controller) {
+        this.socket = null;
+        this.label = label;
+        this.controller = controller;
+        this.memory = MemoryBudget.GLOBAL.account("replay:" + label);
+        this.captureId = 0;
+        this.writer = new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8));
+        this.outbound = new OutboundScheduler(writer, memory, label, () -> {}, () -> {});
+    }
+
+    static PeerConnection forReplay(String label, PeerEvents controller) {
+        return new PeerConnection(label, controller);
+    }
+
+    // dipanggil dari satu thread replay, urutan persis sama dengan capture
+    void replayLine(String line) {
+        if (!active) return;
+        touchLastSeen();
+        if (!handleLine(line)) close();
+    }
+
     private void startReader() {
         readerThread = new Thread(() -> {
             try {
@@ -44,102 +106,246 @@ public class PeerConnection {
                 while (active && (line = reader.readLine()) != null) {
                     // update last seen on any incoming
                     touchLastSeen();
+                    if (captureId != 0) WireCapture.record(WireCapture.IN, captureId, line);
 
-                    if (line.startsWith("HELLO|")) {
-                        remoteName = safeSubstring(line, 6);
-                        controller.onPeerHandshake(remoteName, this);
-                        continue;
-                    }
+                    if (!handleLine(line)) break;
+                }
+            } catch (IOException e) {
+                if (active && e.getMessage() != null && e.getMessage().startsWith("Line exceeds")) {
+                    controller.addMessageBubble("[System] " + remoteName + " sent an oversized frame (" + e.getMessage() + "). Closing.", false, true);
+                }
+            } finally {
+                close();
+            }
+        }, "PeerReader-" + label);
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
 
-                    if (line.startsWith("CHAT|")) {
-                        String[] p = line.split("\\|", 3);
-                        if (p.length >= 3) {
-                            String sender = p[1];
-                            String msg = p[2];
-                            controller.onPeerMessage(sender + ": " + msg, this);
-                        }
-                        continue;
-                    }
+    // @return false kalau lawan pamit (BYE)
+    private boolean handleLine(String line) {
+        if (line.startsWith("HELLO|")) {
+            // HELLO|name[|role]
+            String[] p = line.split("\\|", 3);
+            remoteName = (p.length > 1) ? p[1] : "";
+            remoteRole = (p.length > 2) ? p[2] : "";
+            if (captureId != 0) WireCapture.record(WireCapture.NAME, captureId, remoteName);
+            controller.onPeerHandshake(remoteName, this);
+            return true;
+        }
 
-                    if (line.startsWith("PING|")) {
-                        // reply with PONG (echo same ts or send current)
-                        String ts = safeSubstring(line, 5);
-                        sendLine("PONG|" + ts);
-                        continue;
-                    }
+        if (line.startsWith("REL|")) {
+            // REL|seq|ack|payload
+            String[] p = line.split("\\|", 4);
+            if (p.length < 4) return true;
+            DeliveryTracker d = delivery;
+            if (d == null) return handleLine(p[3]);
+            try {
+                d.onAck(p[2]);
+                long seq = Long.parseLong(p[1]);
+                boolean replay = d.isReplay(seq);
+                List<String> ready = d.receive(seq, p[3]);
+                for (int i = 0; i < ready.size(); i++) {
+                    // hanya frame ini sendiri yang live; sisanya tertahan menunggu gap
+                    liveFrame = !replay && i == 0;
+                    boolean ok = handleLine(ready.get(i));
+                    liveFrame = true;
+                    if (!ok) return false;
+                }
+            } catch (NumberFormatException ignored) {}
+            if (d.needsAck()) sendLine("ACK|" + d.currentAck());
+            return true;
+        }
 
-                    if (line.startsWith("PONG|")) {
-                        // update last seen, optionally log
-                        // (we already touched lastSeen at top)
-                        continue;
-                    }
+        if (line.startsWith("ACK|")) {
+            DeliveryTracker d = delivery;
+            if (d != null) d.onAck(safeSubstring(line, 4));
+            return true;
+        }
 
-                    if (line.startsWith("BYE|")) {
-                        break;
-                    }
+        if (line.startsWith("RELBASE|")) {
+            // RELBASE|stream|base|upTo
+            String[] p = line.split("\\|", 4);
+            DeliveryTracker d = delivery;
+            if (d == null || p.length < 3) return true;
+            try {
+                long upTo = (p.length > 3) ? Long.parseLong(p[3]) : 0;
+                for (String payload : d.onBase(p[1], Long.parseLong(p[2]), upTo)) {
+                    liveFrame = false;
+                    boolean ok = handleLine(payload);
+                    liveFrame = true;
+                    if (!ok) return false;
+                }
+            } catch (NumberFormatException ignored) {}
+            return true;
+        }
 
-                    if (line.startsWith("TYPE|")) {
-                        String user = line.substring(5);
-                        controller.onPeerTyping(user, this);
-                        continue;
-                    }
+        if (line.startsWith("CH|")) {
+            // CH|channel|frame
+            String[] p = line.split("\\|", 3);
+            if (p.length == 3 && Channels.isValid(p[1])) handleChannelLine(p[1], p[2]);
+            return true;
+        }
 
-                    if (line.startsWith("STOPTYPE|")) {
-                        String user = line.substring(9);
-                        controller.onPeerStopTyping(user, this);
-                        continue;
-                    }
+        if (handleChannelLine(Channels.DEFAULT, line)) return true;
 
-                    if (line.startsWith("FILEINFO|")) {
-                        String[] p = line.split("\\|", 3);
-                        if (p.length >= 3) {
-                            String fileName = p[1];
-                            long fileSize = Long.parseLong(p[2]);
-                            controller.onIncomingFileStart(fileName, fileSize, this);
-                        }
-                        continue;
-                    }
+        if (line.startsWith("SUB|")) {
+            String channel = Channels.normalize(safeSubstring(line, 4));
+            if (Channels.isValid(channel)) controller.onRemoteSubscribe(channel, this);
+            return true;
+        }
 
-                    if (line.startsWith("FILEDATA|")) {
-                        String base64 = safeSubstring(line, 9);
-                        controller.onIncomingFileData(base64, this);
-                        continue;
-                    }
+        if (line.startsWith("UNSUB|")) {
+            String channel = Channels.normalize(safeSubstring(line, 6));
+            if (Channels.isValid(channel)) controller.onRemoteUnsubscribe(channel, this);
+            return true;
+        }
 
-                    if (line.startsWith("FILEEND")) {
-                        controller.onIncomingFileEnd(this);
-                        continue;
-                    }
+        if (line.startsWith("ROSTER|")) {
+            // ROSTER|rosterId|version|delta
+            String[] p = line.split("\\|", 4);
+            if (p.length >= 4) {
+                try {
+                    controller.onRoster(p[1], Long.parseLong(p[2]), p[3], this);
+                } catch (NumberFormatException ignored) {}
+            }
+            return true;
+        }
 
-                    if (line.startsWith("FILEREJECT")) {
-                        // remote refused current incoming file -> set flag for sender thread to notice
-                        remoteRejectedFile = true;
-                        continue;
-                    }
+        if (line.startsWith("PING|")) {
+            // PING|ts|ack -> reply with PONG (echo same ts) + our own cumulative ack
+            String[] p = line.split("\\|");
+            applyPiggybackAck(p);
+            sendLine("PONG|" + (p.length > 1 ? p[1] : "") + ackSuffix());
+            return true;
+        }
 
+        if (line.startsWith("PONG|")) {
+            // update last seen (we already touched lastSeen at top) + ack + RTT
+            String[] p = line.split("\\|");
+            applyPiggybackAck(p);
+            onPong(p);
+            return true;
+        }
 
+        if (line.startsWith("BYE|")) {
+            return false;
+        }
 
-                    // fallback: treat as chat from unknown (legacy)
-                    controller.onPeerMessage((remoteName != null ? remoteName : "Unknown") + ": " + line, this);
-                }
-            } catch (IOException ignored) {
-            } finally {
-                close();
+        if (line.startsWith("FILEINFO|")) {
+            // FILEINFO|name|size|sha256
+            String[] p = line.split("\\|", 4);
+            if (p.length >= 3) {
+                String fileName = p[1];
+                long fileSize = Long.parseLong(p[2]);
+                String hash = (p.length >= 4) ? p[3] : null;
+                controller.onIncomingFileStart(fileName, fileSize, hash, this);
             }
-        }, "PeerReader-" + socket.getRemoteSocketAddress());
-        readerThread.setDaemon(true);
-        readerThread.start();
+            return true;
+        }
+
+        if (line.startsWith("FILEHAVE") || line.startsWith("FILEWANT")) {
+            fileReplies.offer(line.substring(0, 8));
+            return true;
+        }
+
+        if (line.startsWith("FILEDATA|")) {
+            controller.onIncomingFileData(safeSubstring(line, 9), this);
+            return true;
+        }
+
+        if (line.startsWith("FILEEND")) {
+            controller.onIncomingFileEnd(this);
+            return true;
+        }
+
+        if (line.startsWith("FILEABORT")) {
+            controller.onIncomingFileAbort(this);
+            return true;
+        }
+
+        if (line.startsWith("FILEREJECT")) {
+            // remote refused current incoming file -> set flag for sender thread to notice
+            remoteRejectedFile = true;
+            fileReplies.offer("FILEREJECT");
+            return true;
+        }
+
+
+
+        // fallback: treat as chat from unknown (legacy)
+        controller.onPeerMessage((remoteName != null ? remoteName : "Unknown") + ": " + line, this);
+        return true;
+    }
+
+    // frame yang terikat ke satu channel; @return false kalau bukan frame channel
+    private boolean handleChannelLine(String channel, String line) {
+        if (line.startsWith("CHAT|")) {
+            ChatMessage m = ChatMessage.fromWire(safeSubstring(line, 5));
+            if (m != null) {
+                controller.onPeerChat(channel, m, this);
+            } else {
+                // legacy: CHAT|sender|msg
+                String[] p = line.split("\\|", 3);
+                if (p.length >= 3 && Channels.DEFAULT.equals(channel)) controller.onPeerMessage(p[1] + ": " + p[2], this);
+            }
+            return true;
+        }
+
+        if (line.startsWith("SYNC|")) {
+            // SYNC|rosterId|rosterVersion|clock|cursor
+            String[] p = line.split("\\|", 5);
+            if (p.length >= 5) {
+                try {
+                    controller.onSyncRequest(channel, p[1], Long.parseLong(p[2]), p[3], Integer.parseInt(p[4]), this);
+                } catch (NumberFormatException ignored) {}
+            }
+            return true;
+        }
+
+        if (line.startsWith("HIST|")) {
+            ChatMessage m = ChatMessage.fromWire(safeSubstring(line, 5));
+            if (m != null) controller.onHistoryMessage(channel, m, this);
+            return true;
+        }
+
+        if (line.startsWith("SYNCMORE|")) {
+            try {
+                controller.onSyncMore(channel, Integer.parseInt(safeSubstring(line, 9)), this);
+            } catch (NumberFormatException ignored) {}
+            return true;
+        }
+
+        if (line.startsWith("SYNCEND|")) {
+            controller.onSyncEnd(channel, this);
+            return true;
+        }
+
+        if (line.startsWith("TYPE|")) {
+            String user = line.substring(5);
+            controller.onPeerTyping(channel, user, this);
+            return true;
+        }
+
+        if (line.startsWith("STOPTYPE|")) {
+            String user = line.substring(9);
+            controller.onPeerStopTyping(channel, user, this);
+            return true;
+        }
+
+        return false;
     }
+
     private void startPingSender() {
         pingThread = new Thread(() -> {
             try {
                 while (active) {
-                    sendLine("PING|" + System.currentTimeMillis());
+                    sendPing();
                     Thread.sleep(PING_INTERVAL_MS);
                 }
             } catch (InterruptedException ignored) {
             }
-        }, "PeerPingSender-" + socket.getRemoteSocketAddress());
+        }, "PeerPingSender-" + label);
         pingThread.setDaemon(true);
         pingThread.start();
     }
@@ -151,7 +357,7 @@ public class PeerConnection {
                     long since = System.currentTimeMillis() - lastSeen.get();
                     if (since > TIMEOUT_MS) {
                         // consider connection dead
-                        controller.addMessageBubble("[System] Peer " + (remoteName != null ? remoteName : socket.getRemoteSocketAddress()) + " timed out (" + (since/1000) + "s). Closing.", false, true);
+                        controller.addMessageBubble("[System] Peer " + (remoteName != null ? remoteName : label) + " timed out (" + (since/1000) + "s). Closing.", false, true);
                         close();
                         break;
                     }
@@ -159,7 +365,7 @@ public class PeerConnection {
                 }
             } catch (InterruptedException ignored) {
             }
-        }, "PeerMonitor-" + socket.getRemoteSocketAddress());
+        }, "PeerMonitor-" + label);
         monitorThread.setDaemon(true);
         monitorThread.start();
     }
@@ -173,85 +379,151 @@ public class PeerConnection {
         lastSeen.set(System.currentTimeMillis());
     }
 
-    public synchronized void sendLine(String message) {
+    private String ackSuffix() {
+        DeliveryTracker d = delivery;
+        return (d != null) ? "|" + d.currentAck() : "";
+    }
+
+    // juga dipanggil scheduler sebagai probe RTT selama ada kiriman bulk
+    private void sendPing() {
+        long ts = System.currentTimeMillis();
+        if (pingsInFlight.size() > 64) pingsInFlight.clear(); // lawan tidak pernah membalas
+        pingsInFlight.putIfAbsent(ts, System.nanoTime());
+        sendLine("PING|" + ts + ackSuffix());
+    }
+
+    private void onPong(String[] p) {
+        if (p.length < 2) return;
         try {
-            writer.write(message);
-            writer.write("\n");  // newline wajib!
-            writer.flush();      // WAJIB flush manual!
-        } catch (Exception ignored) {}
+            Long sent = pingsInFlight.remove(Long.parseLong(p[1]));
+            if (sent != null) {
+                long rtt = System.nanoTime() - sent;
+                rttHistogram.recordNanos(rtt);
+                outbound.onRtt(rtt);
+            }
+        } catch (NumberFormatException ignored) {}
     }
 
+    /**
+     * Frame CHAT yang sedang diproses datang live (bukan replay REL setelah
+     * reconnect / tertahan menunggu gap). Hanya valid di dalam callback reader thread.
+     */
+    public boolean isLiveFrame() {
+        return liveFrame;
+    }
 
-    public void sendFile(String fileName, byte[] data) {
-        if (!active) return;
+    /**
+     * Latensi ujung ke ujung = jam lokal - bagian fisik HLC pengirim (ms).
+     * Dipanggil controller hanya untuk pesan baru yang datang live. Pesan relay
+     * ikut dihitung (origin -> relay -> kita). Nilai negatif berarti jam pengirim
+     * lebih maju dari jam kita; dihitung terpisah, tidak masuk histogram.
+     */
+    public void recordChatLatency(ChatMessage m) {
+        if (socket == null) return; // replay: timestamp dari masa lalu
+        long ms = System.currentTimeMillis() - HybridClock.physicalOf(m.getTimestamp());
+        if (ms < 0) skewedChats.incrementAndGet();
+        else chatLatency.record(ms * 1000);
+    }
+
+    private void applyPiggybackAck(String[] p) {
+        DeliveryTracker d = delivery;
+        if (d == null || p.length < 3) return;
+        d.onAck(p[2]);
+    }
+
+    public void setDelivery(DeliveryTracker delivery) {
+        this.delivery = delivery;
+    }
 
-        sendLine("FILEINFO|" + fileName + "|" + data.length);
+    public DeliveryTracker getDelivery() {
+        return delivery;
+    }
 
-        int chunkSize = 14000; // aman untuk TCP + base64
-        int offset = 0;
+    // supernode tidak pernah kirim SUB: dia relay semua channel, jadi kirim semuanya ke sana
+    public boolean wantsChannel(String channel) {
+        return Channels.DEFAULT.equals(channel) || isSupernode() || remoteChannels.contains(channel);
+    }
 
-        while (offset < data.length) {
-            int end = Math.min(offset + chunkSize, data.length);
-            byte[] chunk = Arrays.copyOfRange(data, offset, end);
-            String base64 = Base64.getEncoder().encodeToString(chunk);
-            sendLine("FILEDATA|" + base64);
+    // @return false kalau sudah kena batas jumlah channel
+    boolean addRemoteChannel(String channel) {
+        if (remoteChannels.size() >= Channels.MAX_PER_PEER) return false;
+        return remoteChannels.add(channel);
+    }
 
-            offset = end;
-        }
+    boolean removeRemoteChannel(String channel) {
+        return remoteChannels.remove(channel);
+    }
 
-        sendLine("FILEEND");
+    Set<String> getRemoteChannels() {
+        return remoteChannels;
     }
 
-    public void sendFileAsync(File file) {
-        if (!active) return;
+    public MemoryBudget.Account getMemory() {
+        return memory;
+    }
 
-        new Thread(() -> {
-            FileInputStream fis = null;
-            try {
-                remoteRejectedFile = false; // reset per-transfer
-                long total = file.length();
-                String fname = file.getName();
-
-                // Inform receiver
-                sendLine("FILEINFO|" + fname + "|" + total);
-
-                fis = new FileInputStream(file);
-                int chunkSize = 12 * 1024; // raw bytes per chunk (12KB)
-                byte[] buf = new byte[chunkSize];
-                int read;
-
-                while ((read = fis.read(buf)) != -1) {
-                    if (!active) break;
-                    if (remoteRejectedFile) {
-                        // remote cancelled -> stop sending
-                        sendLine("FILEEND");
-                        return;
-                    }
+    /**
+     * Masuk antrian OutboundScheduler sesuai kelas trafiknya; thread penulis yang
+     * menulis ke socket. @return false kalau koneksi sudah ditutup.
+     */
+    @Override
+    public boolean sendLine(String message) {
+        if (captureId != 0) WireCapture.record(WireCapture.OUT, captureId, message);
+        return outbound.enqueue(message);
+    }
+
+    /** Untuk data file: blok selama antrian bulk peer ini masih penuh. */
+    public boolean sendBulk(String frame) throws InterruptedException {
+        if (captureId != 0) WireCapture.record(WireCapture.OUT, captureId, frame);
+        return outbound.enqueueBulk(frame);
+    }
 
-                    byte[] actual = (read == buf.length) ? buf : java.util.Arrays.copyOf(buf, read);
-                    String base64 = Base64.getEncoder().encodeToString(actual);
+    public OutboundScheduler getOutbound() {
+        return outbound;
+    }
 
-                    // send as text line
-                    sendLine("FILEDATA|" + base64);
+    public LatencyHistogram getRttHistogram() {
+        return rttHistogram;
+    }
 
-                    // small sleep to avoid saturating writer & allow remote to respond (tune if needed)
-                    try { Thread.sleep(1); } catch (InterruptedException ignored) {}
-                }
+    public LatencyHistogram getChatLatency() {
+        return chatLatency;
+    }
 
-                // done
-                sendLine("FILEEND");
+    public long getSkewedChats() {
+        return skewedChats.get();
+    }
 
-            } catch (IOException e) {
-                // inform controller
-                if (controller != null) controller.addMessageBubble("[Error sending file: " + e.getMessage() + "]", false, true);
-            } finally {
-                if (fis != null) {
-                    try { fis.close(); } catch (IOException ignored) {}
-                }
-            }
-        }, "SendFile-" + file.getName() + "-" + socket.getRemoteSocketAddress()).start();
+    // gagal nulis / antrian kebanyakan: tutup socket supaya reader thread keluar
+    // dan jalur reconnect + retransmit jalan
+    private void abortSocket() {
+        if (active && socket != null) {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+
+    /**
+     * Umumkan file ke peer ini dan tunggu jawabannya.
+     * @return FILEWANT / FILEHAVE / FILEREJECT, atau null kalau timeout
+     */
+    public String offerFile(String fileName, long size, String hash) throws InterruptedException {
+        if (!active) return null;
+        remoteRejectedFile = false; // reset per-transfer
+        fileReplies.clear();
+
+        // Inform receiver, lalu tunggu: dia mungkin sudah punya isinya di cache
+        sendLine("FILEINFO|" + fileName + "|" + size + "|" + hash);
+        return fileReplies.poll(FILE_REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isRemoteRejectedFile() {
+        return remoteRejectedFile;
     }
 
+    public boolean isActive() {
+        return active;
+    }
 
     public void close() {
         if (!active) return;
@@ -259,10 +531,12 @@ public class PeerConnection {
 
         // try to send a BYE politely (best-effort)
         try { sendLine("BYE|" + (controller != null ? controller.getLocalUsernameSafe() : "me")); } catch (Exception ignored) {}
+        outbound.close(200);
 
         try { if (reader != null) reader.close(); } catch (IOException ignored) {}
         try { if (writer != null) writer.close(); } catch (Exception ignored) {}
-        try { if (!socket.isClosed()) socket.close(); } catch (IOException ignored) {}
+        try { if (socket != null && !socket.isClosed()) socket.close(); } catch (IOException ignored) {}
+        memory.releaseAll();
 
         // notify controller (it will remove from peers map)
         try { controller.onPeerClosed(this); } catch (Exception ignored) {}
@@ -277,7 +551,11 @@ public class PeerConnection {
         return remoteName;
     }
 
+    public boolean isSupernode() {
+        return Supernode.ROLE.equals(remoteRole);
+    }
+
     public String getRemoteAddress() {
-        return socket.getRemoteSocketAddress().toString();
+        return label;
     }
 }
@@ -1,5 +1,7 @@
 package main.java.app.peer;
 
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.geometry.Insets;
@@ -8,15 +10,17 @@ import javafx.scene.control.*;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser;
+import javafx.util.Duration;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class PeerController {
+public class PeerController implements PeerEvents {
 
     @FXML private TextField ipField;
     @FXML private TextField usernameField;
@@ -26,26 +30,73 @@ public class PeerController {
     @FXML private Button btnSend;
     @FXML private ScrollPane scrollBox;
     @FXML private VBox messageBox;
+    @FXML private TextField searchField;
+    @FXML private Label searchStatus;
+    @FXML private ComboBox<String> channelBox;
+    @FXML private Label channelStatus;
+    @FXML private Label diagText;
 
-    private ServerSocket listener;
-    private Thread listenerThread;
+    private PeerListener listener;
     private volatile boolean listening = false;
     private volatile boolean manualDisconnect = false;
     private volatile boolean firstConnect = true;
+    private volatile List<InetSocketAddress> upstreamTargets = new ArrayList<>();
 
     private final Map<String, PeerConnection> peers = new HashMap<>();
+    // diakses reader thread dan thread reconnector: selalu di dalam synchronized (reconnectTargets)
     private final Map<PeerConnection, ReconnectInfo> reconnectTargets = new HashMap<>();
 
     private final Map<String, HBox> typingBubbles = new HashMap<>();
     private final Map<String, Long> lastTypingTime = new HashMap<>();
     private volatile boolean typingSent = false;
 
-    private Map<PeerConnection, FileOutputStream> incomingFiles = new HashMap<>();
-    private Map<PeerConnection, String> incomingFileNames = new HashMap<>();
-    private Map<PeerConnection, Long> incomingFileSizes = new HashMap<>();
-    private Map<PeerConnection, Long> incomingReceived = new HashMap<>();
-    // tambah di PeerController fields
-    private Map<PeerConnection, javafx.scene.control.Label> incomingFileProgressLabels = new HashMap<>();
+    // transfer file masuk yang sedang di-spool, satu per peer
+    private final Map<PeerConnection, IncomingTransfer> incoming = new HashMap<>();
+
+    // riwayat room + roster, dipakai untuk sync delta saat (re)join.
+    // history = channel yang sedang tampil; histories = semua channel yang di-join
+    private volatile ChatHistory history;
+    private final Map<String, ChatHistory> histories = new ConcurrentHashMap<>();
+    private volatile String currentChannel = Channels.DEFAULT;
+    private final Map<String, Integer> unread = new ConcurrentHashMap<>();
+    // SUB yang sudah kita kirim ke tiap koneksi
+    private final Map<PeerConnection, Set<String>> advertised = new HashMap<>();
+    // dedup untuk channel yang hanya kita teruskan (tidak di-join, jadi tanpa history)
+    private final Set<String> relaySeen = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > 4096;
+        }
+    });
+    // history yang sudah di-load di background sebelum user klik Connect
+    private volatile CompletableFuture<ChatHistory> historyLoad;
+    private volatile String historyLoadOwner;
+    // socket listener yang sudah di-bind waktu startup, dipakai startListener pertama
+    private volatile PeerListener preBound;
+    private final RoomRoster roster = new RoomRoster();
+    private final Map<PeerConnection, Map<String, String>> syncClocks = new ConcurrentHashMap<>();
+    private final Map<PeerConnection, Long> rosterSent = new ConcurrentHashMap<>();
+    // remoteName -> "rosterId|version" terakhir yang kita terima, bertahan lintas reconnect
+    private final Map<String, String> remoteRosterVersions = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> remoteRosters = new ConcurrentHashMap<>();
+
+    // remoteName -> status ack/retransmit, tetap hidup selama peer sedang reconnect
+    private final Map<String, DeliveryTracker> deliveries = new ConcurrentHashMap<>();
+
+    private final HybridClock clock = new HybridClock();
+    // bubble chat yang sedang tampil, urut HLC (FX thread saja);
+    // pesan yang datang telat disisipkan di posisinya tanpa render ulang
+    private final TreeMap<ChatMessage, HBox> chatNodes = new TreeMap<>(ChatMessage.ORDER);
+
+    // pencarian: view hanya memuat jendela kecil di sekitar hasil, bukan semua bubble
+    private static final int LIVE_TAIL = 100;
+    private static final int SEARCH_WINDOW = 50;
+    private List<Integer> searchHits = new ArrayList<>();
+    private String lastQuery = "";
+    private String lastSearchInfo = "";
+    private int hitCursor = -1;
+    private volatile boolean viewingPast = false;
+    private HBox highlighted;
 
 
 
@@ -68,18 +119,80 @@ public class PeerController {
         btnConnect.setVisible(true);
 
         chatField.textProperty().addListener((pbs, oldV, newV) -> onTyping());
+        // mulai load history begitu username selesai diketik
+        usernameField.focusedProperty().addListener((obs, was, now) -> {
+            if (!now) preloadHistory(usernameField.getText().trim());
+        });
+
+        // panel diagnostik di-refresh tiap detik. initialize() jalan di thread UiLoader,
+        // animasi hanya boleh dibuat/di-play di FX thread
+        Platform.runLater(() -> {
+            Timeline diag = new Timeline(new KeyFrame(Duration.seconds(1), e -> refreshDiagnostics()));
+            diag.setCycleCount(Timeline.INDEFINITE);
+            diag.play();
+        });
+    }
+
+    /**
+     * Kerja startup yang tidak butuh FX thread: bind listener dan load history user
+     * terakhir, berjalan paralel. Dipanggil dari thread loader di PeerMain.
+     */
+    public void warmUp() {
+        CompletableFuture.runAsync(() -> {
+            try {
+                PeerListener s = PeerListener.bind(0);
+                preBound = s;
+                StartupTiming.mark("listener bound on port " + s.getLocalPort());
+            } catch (IOException ignored) {}
+        });
+
+        String last = ChatHistory.lastOwner();
+        if (last != null) {
+            Platform.runLater(() -> {
+                if (usernameField.getText() == null || usernameField.getText().isEmpty()) {
+                    usernameField.setText(last);
+                }
+                preloadHistory(usernameField.getText().trim());
+            });
+        }
+    }
+
+    // FX thread
+    private void preloadHistory(String username) {
+        if (username.isEmpty() || username.equals(historyLoadOwner)) return;
+        ChatHistory h = history;
+        if (h != null && h.getOwner().equals(username)) return;
+
+        CompletableFuture<ChatHistory> previous = historyLoad;
+        if (previous != null) previous.thenAccept(ChatHistory::close);
+
+        historyLoadOwner = username;
+        historyLoad = CompletableFuture.supplyAsync(() -> {
+            ChatHistory loaded = ChatHistory.open(username);
+            StartupTiming.mark("history loaded (" + loaded.size() + " messages)");
+            return loaded;
+        });
     }
 
     private static class ReconnectInfo {
         String ip;
         int port;
         String remoteName;
+        // supernode cadangan, dicoba bergiliran dengan ip:port utama
+        List<InetSocketAddress> alternates = new ArrayList<>();
 
         ReconnectInfo(String ip, int port, String remoteName) {
             this.ip = ip;
             this.port = port;
             this.remoteName = remoteName;
         }
+
+        InetSocketAddress targetFor(int attempt) {
+            int idx = (attempt - 1) % (alternates.size() + 1);
+            if (idx == 0) return new InetSocketAddress(ip, port);
+            InetSocketAddress alt = alternates.get(idx - 1);
+            return new InetSocketAddress(alt.getHostString(), alt.getPort());
+        }
     }
 
     private boolean isMannuallyDisconnect(ReconnectInfo info) {
@@ -95,10 +208,11 @@ public class PeerController {
         if(!typingSent) {
             typingSent = true;
 
+            String channel = currentChannel;
             synchronized (peers) {
                 List <PeerConnection> typePeers = new ArrayList<>(peers.values());
                 for (PeerConnection p : typePeers) {
-                    p.sendLine("TYPE|" + local);
+                    if (p.wantsChannel(channel)) p.sendLine(Channels.wrap(channel, "TYPE|" + local));
                 }
             }
 
@@ -114,7 +228,7 @@ public class PeerController {
                     synchronized (peers) {
                         List <PeerConnection> stPeers = new ArrayList<>(peers.values());
                         for (PeerConnection p : stPeers) {
-                            p.sendLine("STOPTYPE|" + local);
+                            if (p.wantsChannel(channel)) p.sendLine(Channels.wrap(channel, "STOPTYPE|" + local));
                         }
                     }
                 }
@@ -122,96 +236,185 @@ public class PeerController {
         }
     }
 
-    public void onIncomingFileStart(String fileName, long size, PeerConnection pc) {
-        try {
-            FileChooser chooser = new FileChooser();
-            chooser.setInitialFileName(fileName);
-            File saveTo = chooser.showSaveDialog(null);
+    /**
+     * Dipanggil dari reader thread: jangan pernah blok di sini. Data langsung
+     * di-spool ke staging, lokasi simpan ditanyakan ke user secara async.
+     */
+    public void onIncomingFileStart(String fileName, long size, String hash, PeerConnection pc) {
+        IncomingTransfer prev;
+        synchronized (incoming) {
+            prev = incoming.remove(pc);
+        }
+        if (prev != null) prev.abort();
 
-            if (saveTo == null) {
-                // user cancelled -> inform sender to stop
-                pc.sendLine("FILEREJECT");
-                return;
+        IncomingTransfer t;
+        try {
+            // isi yang sama sudah pernah diterima -> pengirim tidak perlu kirim data
+            File cached = FileCache.get().lookup(hash);
+            if (cached != null) {
+                t = IncomingTransfer.fromCache(fileName, size, hash, cached);
+                pc.sendLine("FILEHAVE");
+            } else {
+                t = IncomingTransfer.spool(fileName, size, hash);
+                synchronized (incoming) {
+                    incoming.put(pc, t);
+                }
+                pc.sendLine("FILEWANT");
             }
+        } catch (IOException e) {
+            pc.sendLine("FILEREJECT");
+            addMessageBubble("[Error receiving file: " + e.getMessage() + "]", false, true);
+            return;
+        }
 
-            FileOutputStream fos = new FileOutputStream(saveTo);
-            incomingFiles.put(pc, fos);
-            incomingFileNames.put(pc, fileName);
-            incomingFileSizes.put(pc, size);
-            incomingReceived.put(pc, 0L);
+        final IncomingTransfer transfer = t;
+        Platform.runLater(() -> {
+            addMessageBubble("[Receiving file: " + fileName + " (" + size + " bytes)" + (transfer.isFromCache() ? " from cache" : "") + "]", false, true);
+            Label progressLabel = new Label("Receiving " + fileName + ": 0%");
+            progressLabel.setWrapText(true);
+            transfer.progressLabel = progressLabel;
 
-            // create progress label in UI so user sees progress
-            Platform.runLater(() -> {
-                addMessageBubble("[Receiving file: " + fileName + " (0/" + size + " bytes)]", false, true);
-                Label progressLabel = new Label("Receiving " + fileName + ": 0%");
-                progressLabel.setWrapText(true);
-                incomingFileProgressLabels.put(pc, progressLabel);
-
-                HBox container = new HBox(progressLabel);
-                container.setPadding(new Insets(4));
-                container.setAlignment(Pos.CENTER_LEFT);
-                messageBox.getChildren().add(container);
-                scrollBox.setVvalue(1.0);
-            });
+            HBox container = new HBox(progressLabel);
+            container.setPadding(new Insets(4));
+            container.setAlignment(Pos.CENTER_LEFT);
+            messageBox.getChildren().add(container);
+            scrollBox.setVvalue(1.0);
 
-        } catch (Exception e) {
-            addMessageBubble("[Error receiving file: " + e.getMessage() + "]", false, true);
+            askSaveLocation(transfer, pc);
+        });
+    }
+
+    // FX thread; transfer tetap jalan selama dialog terbuka
+    private void askSaveLocation(IncomingTransfer t, PeerConnection pc) {
+        FileChooser chooser = new FileChooser();
+        chooser.setInitialFileName(t.getFileName());
+        File saveTo = chooser.showSaveDialog(null);
+
+        if (saveTo == null) {
+            // user cancelled -> inform sender to stop
+            if (t.reject()) pc.sendLine("FILEREJECT");
+            synchronized (incoming) {
+                incoming.remove(pc, t);
+            }
+            removeProgress(t);
+            addMessageBubble("[Rejected file: " + t.getFileName() + "]", false, true);
+            return;
+        }
+
+        if (t.accept(saveTo)) {
+            finishTransfer(t);
+        } else if (t.progressLabel != null) {
+            t.progressLabel.setText("Receiving " + t.getFileName() + " -> " + saveTo.getName());
         }
     }
 
-    public void onIncomingFileData(String base64, PeerConnection pc) {
-        try {
-            byte[] chunk = Base64.getDecoder().decode(base64);
-            FileOutputStream fos = incomingFiles.get(pc);
-            if (fos != null) {
-                fos.write(chunk);
-
-                long rec = incomingReceived.getOrDefault(pc, 0L) + chunk.length;
-                incomingReceived.put(pc, rec);
-
-                // update progress label
-                Long total = incomingFileSizes.get(pc);
-                if (total != null) {
-                    final long receivedFinal = rec;
-                    final long totalFinal = total;
-                    Platform.runLater(() -> {
-                        Label pl = incomingFileProgressLabels.get(pc);
-                        if (pl != null) {
-                            int pct = (int) ((receivedFinal * 100) / Math.max(1, totalFinal));
-                            pl.setText("Receiving " + incomingFileNames.get(pc) + ": " + pct + "% (" + receivedFinal + "/" + totalFinal + " bytes)");
-                        }
-                    });
+    private void finishTransfer(IncomingTransfer t) {
+        new Thread(() -> {
+            try {
+                t.finishTo();
+                removeProgress(t);
+                addMessageBubble("[File received: " + t.getFileName() + " (" + t.getSize() + " bytes)]", false, true);
+                if (!t.isChecksumOk()) {
+                    addMessageBubble("[Warning: " + t.getFileName() + " does not match the sender's checksum]", false, true);
                 }
+            } catch (IOException e) {
+                addMessageBubble("[File receive finalize error: " + e.getMessage() + "]", false, true);
             }
-        } catch (Exception e) {
-            addMessageBubble("[File receive error: " + e.getMessage() + "]", false, true);
-        }
+        }, "FinishFile-" + t.getFileName()).start();
     }
 
-    public void onIncomingFileEnd(PeerConnection pc) {
+    private void removeProgress(IncomingTransfer t) {
+        Platform.runLater(() -> {
+            Label pl = t.progressLabel;
+            if (pl != null) {
+                messageBox.getChildren().remove(pl.getParent()); // we added pl inside a HBox container
+            }
+        });
+    }
+
+    public void onIncomingFileData(String payload, PeerConnection pc) {
+        IncomingTransfer t;
+        synchronized (incoming) {
+            t = incoming.get(pc);
+        }
+        if (t == null) return; // sudah ditolak / tidak dikenal
+
+        // chunk hasil decode dicatat ke kuota peer; kalau penuh, reader thread
+        // peer ini menunggu di sini (flow control) sampai memori dilepas
+        long need = FileChunkCodec.decodedSize(payload);
         try {
-            FileOutputStream fos = incomingFiles.remove(pc);
-            if (fos != null) fos.close();
+            pc.getMemory().reserve(need);
+        } catch (InterruptedException | IllegalArgumentException e) {
+            pc.sendLine("FILEREJECT");
+            return;
+        }
 
-            String name = incomingFileNames.remove(pc);
-            Long size = incomingFileSizes.remove(pc);
-            incomingReceived.remove(pc);
+        try {
+            byte[] chunk = FileChunkCodec.decode(payload);
+            t.write(chunk);
 
-            // remove progress label
+            // update progress label
+            final long receivedFinal = t.getReceived();
+            final long totalFinal = t.getSize();
             Platform.runLater(() -> {
-                Label pl = incomingFileProgressLabels.remove(pc);
+                Label pl = t.progressLabel;
                 if (pl != null) {
-                    messageBox.getChildren().remove(pl.getParent()); // we added pl inside a HBox container
+                    int pct = (int) ((receivedFinal * 100) / Math.max(1, totalFinal));
+                    pl.setText("Receiving " + t.getFileName() + ": " + pct + "% (" + receivedFinal + "/" + totalFinal + " bytes)");
                 }
-                addMessageBubble("[File received: " + name + " (" + (size != null ? size : 0) + " bytes)]", false, true);
-                scrollBox.setVvalue(1.0);
             });
-
         } catch (Exception e) {
-            addMessageBubble("[File receive finalize error: " + e.getMessage() + "]", false, true);
+            // chunk rusak: hentikan transfer ini, jangan simpan file setengah jadi
+            synchronized (incoming) {
+                incoming.remove(pc, t);
+            }
+            t.abort();
+            pc.sendLine("FILEREJECT");
+            removeProgress(t);
+            addMessageBubble("[File receive error: " + e.getMessage() + "]", false, true);
+        } finally {
+            pc.getMemory().release(need);
         }
     }
 
+    // koneksi putus di tengah transfer: buang spool + state per-peer
+    private void abortIncomingFile(PeerConnection pc) {
+        IncomingTransfer t;
+        synchronized (incoming) {
+            t = incoming.remove(pc);
+        }
+        if (t == null || t.isComplete()) return;
+
+        t.abort();
+        removeProgress(t);
+        addMessageBubble("[File transfer interrupted: " + t.getFileName() + "]", false, true);
+    }
+
+    public void onIncomingFileAbort(PeerConnection pc) {
+        abortIncomingFile(pc);
+    }
+
+    public void onIncomingFileEnd(PeerConnection pc) {
+        IncomingTransfer t;
+        synchronized (incoming) {
+            t = incoming.remove(pc);
+        }
+        if (t == null) return;
+
+        try {
+            if (t.complete()) {
+                finishTransfer(t);
+            } else {
+                Platform.runLater(() -> {
+                    if (t.progressLabel != null) {
+                        t.progressLabel.setText("Received " + t.getFileName() + ", waiting for save location...");
+                    }
+                });
+            }
+        } catch (IOException e) {
+            addMessageBubble("[File receive finalize error: " + e.getMessage() + "]", false, true);
+        }
+    }
 
     @FXML
     private void onSendFile() {
@@ -224,12 +427,27 @@ public class PeerController {
         // notify UI immediately (optimistic)
         addMessageBubble("[You: sending file " + fname + " to all peers...]", true, true);
 
-        // delegate streaming send to each PeerConnection so UI thread tidak terblokir
-        synchronized (peers) {
-            for (PeerConnection p : peers.values()) {
-                p.sendFileAsync(file);
+        // hash sekali untuk semua peer (di luar FX thread), lalu streaming
+        // lewat pipeline bersama supaya UI thread tidak terblokir
+        new Thread(() -> {
+            String hash;
+            try {
+                hash = FileCache.sha256(file);
+            } catch (IOException e) {
+                addMessageBubble("[Error sending file: " + e.getMessage() + "]", false, true);
+                return;
             }
-        }
+
+            List<PeerConnection> targets;
+            synchronized (peers) {
+                targets = new ArrayList<>(peers.values());
+            }
+            // satu kali baca + encode, hasilnya dibagi ke semua peer
+            new FileSendPipeline(file, hash, this).start(targets);
+
+            // file kita sendiri juga masuk cache: kalau nanti dibagikan balik, cukup FILEHAVE
+            FileCache.get().put(hash, file);
+        }, "HashFile-" + fname).start();
     }
 
 
@@ -237,58 +455,43 @@ public class PeerController {
     private void startListener() {
         new Thread(() -> {
             try {
-                listener = new ServerSocket(0);
-                listener.setReuseAddress(true);
+                PeerListener pre = preBound;
+                preBound = null;
+                listener = (pre != null && pre.isOpen()) ? pre : PeerListener.bind(0);
                 listening = true;
 
                 int port = listener.getLocalPort();
-                String localIp = detectLocalIp();
+                String localIp = LocalAddresses.get().primary();
 
                 addMessageBubble("[System] Listening on " + localIp + ":" + port, false, true);
 
-                listenerThread = new Thread(() -> {
-                    while (listening) {
-                        try {
-                            Socket incoming = listener.accept();
-                            PeerConnection pc = new PeerConnection(incoming, this);
-
-                            String local = usernameField.getText().trim();
-                            if(!local.isEmpty()) {
-                                pc.sendLine("HELLO|" + local);
-                            } else {
-                                pc.sendLine("BYE|No username set");
-                                pc.close();
-                            }
-                        } catch (SocketException se) {
-                            break;
-                        } catch (IOException e) {
-                            if (listening)
-                                addMessageBubble("[System] Listener error: " + e.getMessage(), false, true);
-                        }
+                // koneksi masuk baru jadi PeerConnection setelah HELLO-nya lolos di PeerListener
+                listener.start(new PeerListener.Handler() {
+                    @Override
+                    public String localName() {
+                        return usernameField.getText().trim();
                     }
-                }, "PeerListenerThread");
 
-                listenerThread.setDaemon(true);
-                listenerThread.start();
+                    @Override
+                    public void onHandshake(Socket socket, byte[] prefix) throws IOException {
+                        new PeerConnection(socket, prefix, "HELLO|" + localName(), PeerController.this);
+                    }
+
+                    @Override
+                    public void onListenerMessage(String message) {
+                        addMessageBubble(message, false, true);
+                    }
+                });
 
             } catch (IOException e) {
+                // bisa jadi interface berubah sejak startup, enumerasi ulang di background
+                LocalAddresses.invalidate();
+                LocalAddresses.warmUp();
                 addMessageBubble("[Error] Could not start listener: " + e.getMessage(), false, true);
             }
         }, "StartListener").start();
     }
 
-    private String detectLocalIp() {
-        try {
-            DatagramSocket s = new DatagramSocket();
-            s.connect(InetAddress.getByName("8.8.8.8"), 10002);
-            String ip = s.getLocalAddress().getHostAddress();
-            s.close();
-            return ip;
-        } catch (Exception e) {
-            return "127.0.0.1";
-        }
-    }
-
     @FXML
     private void onConnect() {
         manualDisconnect = false;
@@ -300,13 +503,15 @@ public class PeerController {
             showAlert("Missing info", "Username can't be empty!!");
             if(firstConnect == false && listening) {
                 stopListener();
-                messageBox.getChildren().clear();
+                clearView();
                 scrollBox.setVvalue(1.0);
                 firstConnect = true;
             }
             return;
         }
 
+        openHistory(username);
+
         if(target.isEmpty() && !username.isEmpty() && (firstConnect == true)) {
             if(!listening) startListener();
             firstConnect = false;
@@ -318,7 +523,9 @@ public class PeerController {
             return;
         }
 
-        String[] parts = target.split(":");
+        // "primary:port,backup:port" -> sisanya dipakai untuk failover supernode
+        String[] targetList = target.split(",");
+        String[] parts = targetList[0].trim().split(":");
         if (parts.length < 2) {
             showAlert("Format Error", "IP:Port expected (example: 192.168.1.5:53211)");
             return;
@@ -327,29 +534,29 @@ public class PeerController {
         String ip = parts[0];
         int port;
 
+        List<InetSocketAddress> targets = new ArrayList<>();
         try {
             port = Integer.parseInt(parts[1]);
+            for (String t : targetList) {
+                String[] hp = t.trim().split(":");
+                if (hp.length < 2) continue;
+                targets.add(InetSocketAddress.createUnresolved(hp[0], Integer.parseInt(hp[1])));
+            }
         } catch (NumberFormatException nfe) {
             showAlert("Port Error", "Port must be a number");
             return;
         }
+        upstreamTargets = targets;
 
         try {
-            String[] selfCheck = target.split(":");
-            String targetIp = selfCheck[0];
-            int targetPort = Integer.parseInt(selfCheck[1]);
+            String targetIp = ip;
+            int targetPort = port;
 
-            String localIp = detectLocalIp();
+            // alamat lokal sudah di-cache waktu startup, tidak ada lookup DNS di sini
+            LocalAddresses self = LocalAddresses.get();
             int localPort = listener.getLocalPort();
 
-            List<String> selfIps = Arrays.asList(
-                    localIp,
-                    "127.0.0.1",
-                    "0.0.0.0",
-                    InetAddress.getLocalHost().getHostAddress()
-            );
-
-            if(targetIp.equals(localIp) && targetPort == localPort) {
+            if(self.isSelf(targetIp) && targetPort == localPort) {
                 showAlert("Invalid Connection", "You cannot connect to your own device.");
                 return;
             }
@@ -363,18 +570,23 @@ public class PeerController {
                 showAlert("Invalid Connection", "You cannot connect to your own device.");
                 return;
             }
-
-            String localhost = InetAddress.getLocalHost().getHostAddress();
-            if(targetIp.equals(localhost)) {
-                showAlert("Invalid Connection", "You cannot connect to your own device.");
-                return;
-            }
         } catch (Exception ignored) {}
 
         new Thread(() -> {
             try {
-                Socket s = new Socket();
-                s.connect(new InetSocketAddress(ip, port), 4000);
+                Socket s = null;
+                IOException lastError = null;
+                for (InetSocketAddress t : targets) {
+                    try {
+                        s = new Socket();
+                        s.connect(new InetSocketAddress(t.getHostString(), t.getPort()), 4000);
+                        break;
+                    } catch (IOException e) {
+                        lastError = e;
+                        s = null;
+                    }
+                }
+                if (s == null) throw lastError;
 
                 PeerConnection pc = new PeerConnection(s, this);
 
@@ -399,6 +611,8 @@ public class PeerController {
                 });
 
             } catch (IOException e) {
+                LocalAddresses.invalidate();
+                LocalAddresses.warmUp();
                 addMessageBubble("[Error] Could not connect — " + e.getMessage(), false, true);
             }
 
@@ -423,18 +637,25 @@ public class PeerController {
     private void onSend() {
         String msg = chatField.getText().trim();
         if (msg.isEmpty()) return;
+        if (viewingPast) showLive();
 
-        String time = LocalTime.now().withNano(0).toString();
         String username = usernameField.getText().trim();
+        String channel = currentChannel;
+
+        ChatMessage m = history.appendLocal(username, clock.now(), msg);
+
+        // lewat tracker: peer yang sedang reconnect tetap kebagian (di-buffer)
+        for (DeliveryTracker t : deliveries.values()) {
+            if (peerWants(t.getRemoteName(), channel)) t.send(Channels.wrap(channel, "CHAT|" + m.toWire()));
+        }
 
         synchronized (peers) {
             for (PeerConnection p : peers.values()) {
-                p.sendLine("CHAT|" + username + "|" + msg);
-                p.sendLine("STOPTYPE|" + username);
+                if (p.wantsChannel(channel)) p.sendLine(Channels.wrap(channel, "STOPTYPE|" + username));
             }
         }
 
-        addMessageBubble("[" + time + "] You: " + msg, true, false);
+        renderChat(m);
         chatField.clear();
 
         typingSent = false;
@@ -455,6 +676,21 @@ public class PeerController {
             peers.put(remoteName, conn);
         }
 
+        // failover ke node lain: tracker milik node lama tidak akan pernah di-ack lagi
+        ReconnectInfo previous;
+        synchronized (reconnectTargets) {
+            // reconnector memasang info sebelum lepas lock ini, jadi tidak ada race dengan HELLO
+            previous = reconnectTargets.get(conn);
+        }
+        if (previous != null && !previous.remoteName.equals(remoteName)) {
+            synchronized (peers) {
+                if (!peers.containsKey(previous.remoteName)) {
+                    DeliveryTracker old = deliveries.remove(previous.remoteName);
+                    if (old != null) old.dispose();
+                }
+            }
+        }
+
         try {
             String addr = conn.getRemoteAddress(); // contoh "/192.168.1.10:53211"
             String cleaned = addr.replace("/", "");
@@ -463,11 +699,44 @@ public class PeerController {
             String ip = parts[0];
             int port = Integer.parseInt(parts[1]);
 
-            reconnectTargets.put(conn, new ReconnectInfo(ip, port, remoteName));
+            ReconnectInfo info = new ReconnectInfo(ip, port, remoteName);
+            if (conn.isSupernode()) {
+                for (InetSocketAddress t : upstreamTargets) {
+                    if (!(t.getHostString().equals(ip) && t.getPort() == port)) info.alternates.add(t);
+                }
+            }
+            synchronized (reconnectTargets) {
+                reconnectTargets.put(conn, info);
+            }
         } catch (Exception e) {}
 
+        if (conn.isSupernode()) {
+            // leaf mode: cukup satu koneksi upstream, tidak perlu jadi hub
+            stopListener();
+            addMessageBubble("[System] Joined via supernode " + remoteName + " (leaf mode)", false, true);
+        }
+
         addMessageBubble("[System] " + remoteName + " connected (" + conn.getRemoteAddress() + ")", false, true);
 
+        DeliveryTracker tracker = deliveries.computeIfAbsent(remoteName, DeliveryTracker::new);
+        conn.setDelivery(tracker);
+        tracker.attach(conn);
+
+        roster.join(remoteName);
+        broadcastRoster();
+        synchronized (advertised) {
+            advertised.remove(conn);
+        }
+        refreshSubscriptions();
+        requestSync(conn, Channels.DEFAULT);
+        if (conn.isSupernode()) {
+            // supernode tidak membalas SUB dengan SUB, jadi sync channel lain tidak dipicu
+            // onRemoteSubscribe: tarik sendiri semua channel yang kita join
+            for (String c : new ArrayList<>(histories.keySet())) {
+                if (!Channels.DEFAULT.equals(c)) requestSync(conn, c);
+            }
+        }
+
         Platform.runLater(() -> {
             chatField.setDisable(false);
             btnSend.setDisable(false);
@@ -489,13 +758,491 @@ public class PeerController {
         addMessageBubble(display, false, false);
     }
 
+    public void onPeerChat(String channel, ChatMessage m, PeerConnection from) {
+        acceptChat(channel, m, from, from.isLiveFrame());
+    }
+
+    public void onHistoryMessage(String channel, ChatMessage m, PeerConnection from) {
+        acceptChat(channel, m, from, false);
+    }
+
+    /**
+     * Pesan baru (live atau hasil sync) -> simpan, tampilkan, teruskan ke peer lain.
+     * Yang bukan live diteruskan sebagai HIST supaya tetangga tidak menghitungnya
+     * sebagai sampel latensi.
+     */
+    private void acceptChat(String channel, ChatMessage m, PeerConnection from, boolean live) {
+        ChatHistory h = histories.get(channel);
+        if (h != null) {
+            if (!h.add(m)) return; // duplikat
+            clock.update(m.getTimestamp());
+            if (h == history) {
+                renderChat(m);
+            } else {
+                unread.merge(channel, 1, Integer::sum);
+                updateChannelStatus();
+            }
+        } else {
+            // channel yang tidak kita join: hanya diteruskan ke tetangga yang minta
+            synchronized (relaySeen) {
+                if (!relaySeen.add(channel + "/" + m.key())) return;
+            }
+        }
+        if (live) from.recordChatLatency(m);
+
+        String frame = Channels.wrap(channel, (live ? "CHAT|" : "HIST|") + m.toWire());
+        for (DeliveryTracker t : deliveries.values()) {
+            if (from != null && t.getRemoteName().equals(from.getRemoteName())) continue;
+            if (peerWants(t.getRemoteName(), channel)) t.send(frame);
+        }
+    }
+
+    private boolean peerWants(String remoteName, String channel) {
+        if (Channels.DEFAULT.equals(channel)) return true;
+        synchronized (peers) {
+            PeerConnection pc = peers.get(remoteName);
+            return pc != null && pc.wantsChannel(channel);
+        }
+    }
+
+    public void onRemoteSubscribe(String channel, PeerConnection conn) {
+        if (!conn.addRemoteChannel(channel)) return;
+        refreshSubscriptions();
+        // lawan baru join (atau baru connect): ambil pesan channel ini yang belum kita punya
+        if (histories.containsKey(channel)) requestSync(conn, channel);
+    }
+
+    public void onRemoteUnsubscribe(String channel, PeerConnection conn) {
+        if (conn.removeRemoteChannel(channel)) refreshSubscriptions();
+    }
+
+    /**
+     * Minta ke tiap tetangga semua channel yang kita join, ditambah channel yang
+     * diminta tetangga lain supaya pesannya bisa kita teruskan. Hanya selisihnya
+     * yang dikirim sebagai SUB / UNSUB.
+     */
+    private void refreshSubscriptions() {
+        List<PeerConnection> conns;
+        synchronized (peers) {
+            conns = new ArrayList<>(peers.values());
+        }
+        synchronized (advertised) {
+            advertised.keySet().retainAll(conns);
+            for (PeerConnection pc : conns) {
+                Set<String> want = new TreeSet<>(histories.keySet());
+                for (PeerConnection other : conns) {
+                    if (other != pc) want.addAll(other.getRemoteChannels());
+                }
+                want.remove(Channels.DEFAULT);
+
+                Set<String> had = advertised.getOrDefault(pc, Collections.emptySet());
+                for (String c : want) if (!had.contains(c)) pc.sendLine("SUB|" + c);
+                for (String c : had) if (!want.contains(c)) pc.sendLine("UNSUB|" + c);
+                advertised.put(pc, want);
+            }
+        }
+    }
+
+    @FXML
+    private void onChannelSelect() {
+        String c = Channels.normalize(channelBox.getValue());
+        if (c.isEmpty() || c.equals(currentChannel)) return;
+        if (!Channels.isValid(c)) {
+            showAlert("Channel", "Channel names use a-z, 0-9, '-' and '_' (max 32 characters).");
+            channelBox.setValue(currentChannel);
+            return;
+        }
+        if (history == null) {
+            showAlert("Channel", "Set a username and connect first.");
+            channelBox.setValue(currentChannel);
+            return;
+        }
+        if (!histories.containsKey(c)) joinChannel(c);
+        switchChannel(c);
+    }
+
+    @FXML
+    private void onLeaveChannel() {
+        String c = currentChannel;
+        if (Channels.DEFAULT.equals(c)) {
+            showAlert("Channel", "You can't leave #" + Channels.DEFAULT + ".");
+            return;
+        }
+        switchChannel(Channels.DEFAULT);
+
+        ChatHistory h = histories.remove(c);
+        if (h != null) {
+            h.close();
+            Channels.saveJoined(h.getOwner(), histories.keySet());
+        }
+        unread.remove(c);
+        channelBox.getItems().remove(c);
+        refreshSubscriptions();
+        addMessageBubble("[System] Left #" + c, false, true);
+    }
+
+    // FX thread
+    private void joinChannel(String c) {
+        ChatHistory h = ChatHistory.open(history.getOwner(), c);
+        histories.put(c, h);
+        Channels.saveJoined(h.getOwner(), histories.keySet());
+        if (!channelBox.getItems().contains(c)) channelBox.getItems().add(c);
+
+        // SUB ke semua tetangga; sync jalan waktu lawan membalas SUB-nya sendiri,
+        // atau langsung kalau lawan memang sudah subscribe channel ini (supernode selalu)
+        refreshSubscriptions();
+        List<PeerConnection> conns;
+        synchronized (peers) {
+            conns = new ArrayList<>(peers.values());
+        }
+        for (PeerConnection pc : conns) {
+            if (pc.wantsChannel(c)) requestSync(pc, c);
+        }
+    }
+
+    // FX thread
+    private void switchChannel(String c) {
+        ChatHistory h = histories.get(c);
+        if (h == null) return;
+
+        currentChannel = c;
+        history = h;
+        unread.remove(c);
+        channelBox.setValue(c);
+
+        // hasil pencarian dan indikator mengetik milik channel sebelumnya
+        searchHits = new ArrayList<>();
+        lastQuery = "";
+        hitCursor = -1;
+        searchStatus.setText("");
+        typingBubbles.clear();
+
+        showLive();
+        updateChannelStatus();
+    }
+
+    private void updateChannelStatus() {
+        Platform.runLater(() -> {
+            StringBuilder sb = new StringBuilder("#" + currentChannel);
+            for (Map.Entry<String, Integer> e : new TreeMap<>(unread).entrySet()) {
+                sb.append("  ·  #").append(e.getKey()).append(" (").append(e.getValue()).append(" new)");
+            }
+            channelStatus.setText(sb.toString());
+        });
+    }
+
+    private List<PeerConnection> connectedPeers() {
+        synchronized (peers) {
+            List<PeerConnection> list = new ArrayList<>(peers.values());
+            list.sort(Comparator.comparing(PeerConnection::getRemoteName));
+            return list;
+        }
+    }
+
+    // FX thread (Timeline). Per peer: srtt + rate bulk, lalu p50/p95/p99 RTT dan latensi chat
+    private void refreshDiagnostics() {
+        List<PeerConnection> list = connectedPeers();
+        if (list.isEmpty()) {
+            diagText.setText("No peers connected");
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (PeerConnection pc : list) {
+            OutboundScheduler o = pc.getOutbound();
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(pc.getRemoteName())
+                    .append("  srtt ").append(LatencyHistogram.ms(o.getSmoothedRttNanos() / 1000)).append(" ms")
+                    .append("  bulk ").append((long) o.getThroughput() >> 10).append(" KB/s\n");
+            sb.append("  rtt ").append(pc.getRttHistogram().summary())
+                    .append("   e2e ").append(pc.getChatLatency().summary());
+            if (pc.getSkewedChats() > 0) sb.append(" (").append(pc.getSkewedChats()).append(" skewed)");
+        }
+        diagText.setText(sb.toString());
+    }
+
+    @FXML
+    private void onExportDiagnostics() {
+        List<PeerConnection> list = connectedPeers();
+        if (list.isEmpty()) {
+            showAlert("Export Diagnostics", "No peers connected.");
+            return;
+        }
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export latency diagnostics");
+        chooser.setInitialFileName("lokalpedia-latency-" + System.currentTimeMillis() + ".csv");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV files", "*.csv"));
+        File file = chooser.showSaveDialog(null);
+        if (file == null) return;
+
+        try (PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            w.println("time,peer,address,metric,samples,min_ms,p50_ms,p95_ms,p99_ms,max_ms,mean_ms,srtt_ms,bulk_rate_kbps,throughput_kbps,skewed");
+            String time = java.time.Instant.now().toString();
+            for (PeerConnection pc : list) {
+                OutboundScheduler o = pc.getOutbound();
+                String tail = "," + LatencyHistogram.ms(o.getSmoothedRttNanos() / 1000)
+                        + "," + (o.getBulkRate() >> 10)
+                        + "," + ((long) o.getThroughput() >> 10)
+                        + "," + pc.getSkewedChats();
+                String head = time + "," + csv(pc.getRemoteName()) + "," + csv(pc.getRemoteAddress());
+                w.println(head + ",rtt," + csvStats(pc.getRttHistogram()) + tail);
+                w.println(head + ",e2e," + csvStats(pc.getChatLatency()) + tail);
+            }
+            addMessageBubble("[System] Diagnostics exported to " + file.getName(), false, true);
+        } catch (IOException e) {
+            showAlert("Export Diagnostics", "Could not write file: " + e.getMessage());
+        }
+    }
+
+    private static String csvStats(LatencyHistogram h) {
+        return h.count() + "," + LatencyHistogram.ms(h.min()) + "," + LatencyHistogram.ms(h.percentile(50))
+                + "," + LatencyHistogram.ms(h.percentile(95)) + "," + LatencyHistogram.ms(h.percentile(99))
+                + "," + LatencyHistogram.ms(h.max()) + "," + LatencyHistogram.ms(h.mean());
+    }
+
+    private static String csv(String v) {
+        if (v == null) return "";
+        if (v.indexOf(',') < 0 && v.indexOf('"') < 0) return v;
+        return "\"" + v.replace("\"", "\"\"") + "\"";
+    }
+
+    private void renderChat(ChatMessage m) {
+        Platform.runLater(() -> {
+            // sedang lihat hasil pencarian lama; pesan baru muncul waktu kembali ke live
+            if (viewingPast) return;
+            insertChatNode(m);
+        });
+    }
+
+    // FX thread
+    private HBox insertChatNode(ChatMessage m) {
+        boolean own = m.getOrigin().equals(getLocalUsernameSafe());
+        String time = LocalTime.ofInstant(java.time.Instant.ofEpochMilli(m.getWallClockMillis()), java.time.ZoneId.systemDefault()).withNano(0).toString();
+        String text = "[" + time + "] " + (own ? "You" : m.getOrigin()) + ": " + m.getText();
+
+        HBox container = buildBubble(text, own, false);
+        Map.Entry<ChatMessage, HBox> after = chatNodes.higherEntry(m);
+        chatNodes.put(m, container);
+
+        if (after == null) {
+            messageBox.getChildren().add(container);
+            scrollBox.setVvalue(1.0);
+        } else {
+            // pesan telat: taruh tepat sebelum pesan yang lebih baru
+            int idx = messageBox.getChildren().indexOf(after.getValue());
+            messageBox.getChildren().add(Math.max(0, idx), container);
+        }
+        return container;
+    }
+
+    @FXML
+    private void onSearch() {
+        ChatHistory h = history;
+        if (h == null) return;
+
+        String q = searchField.getText().trim();
+        if (q.isEmpty()) {
+            lastQuery = "";
+            searchStatus.setText("");
+            if (viewingPast) showLive();
+            return;
+        }
+
+        // Enter lagi dengan query yang sama = hasil berikutnya (lebih lama)
+        if (!q.equals(lastQuery)) {
+            long start = System.nanoTime();
+            searchHits = h.search(q, 500);
+            long micros = (System.nanoTime() - start) / 1000;
+            lastQuery = q;
+            hitCursor = -1;
+            lastSearchInfo = searchHits.size() + (searchHits.size() == 500 ? "+" : "") + " matches in " + (micros / 1000.0) + " ms";
+            searchStatus.setText(lastSearchInfo);
+        }
+        if (searchHits.isEmpty()) return;
+
+        hitCursor = (hitCursor + 1) % searchHits.size();
+        int ordinal = searchHits.get(hitCursor);
+        searchStatus.setText(lastSearchInfo + " - showing " + (hitCursor + 1) + "/" + searchHits.size());
+        jumpTo(h.get(ordinal), ordinal);
+    }
+
+    private void jumpTo(ChatMessage m, int ordinal) {
+        HBox node = chatNodes.get(m);
+        if (node == null) {
+            // belum tampil: render jendela kecil di sekitar hasil saja
+            viewingPast = true;
+            clearView();
+            messageBox.getChildren().add(buildBubble("[System] Showing history around the search result. Clear the search box and press Enter to return to live chat.", false, true));
+            for (ChatMessage c : history.range(ordinal - SEARCH_WINDOW, ordinal + SEARCH_WINDOW + 1)) {
+                insertChatNode(c);
+            }
+            node = chatNodes.get(m);
+        }
+        if (node == null) return;
+
+        if (highlighted != null) highlighted.setStyle("");
+        node.setStyle("-fx-border-color: #FF5F1F; -fx-border-width: 2; -fx-border-radius: 12");
+        highlighted = node;
+
+        // tunggu layout dulu baru hitung posisi scroll
+        messageBox.applyCss();
+        messageBox.layout();
+        double contentH = messageBox.getHeight();
+        double viewH = scrollBox.getViewportBounds().getHeight();
+        double y = node.getBoundsInParent().getMinY();
+        scrollBox.setVvalue(contentH > viewH ? Math.min(1.0, y / (contentH - viewH)) : 0);
+    }
+
+    private void showLive() {
+        viewingPast = false;
+        clearView();
+        ChatHistory h = history;
+        if (h == null) return;
+        for (ChatMessage c : h.tail(LIVE_TAIL)) insertChatNode(c);
+        scrollBox.setVvalue(1.0);
+    }
+
+    private void clearView() {
+        messageBox.getChildren().clear();
+        chatNodes.clear();
+        highlighted = null;
+    }
+
+    private void openHistory(String username) {
+        ChatHistory h = history;
+        if (h != null && h.getOwner().equals(username)) return;
+        if (h != null) {
+            for (ChatHistory c : histories.values()) c.close();
+            histories.clear();
+            unread.clear();
+            roster.leave(h.getOwner());
+        }
+
+        CompletableFuture<ChatHistory> pre = username.equals(historyLoadOwner) ? historyLoad : null;
+        if (pre == null && historyLoad != null) historyLoad.thenAccept(ChatHistory::close);
+        historyLoad = null;
+        historyLoadOwner = null;
+
+        // biasanya sudah selesai di background sejak username diketik
+        ChatHistory general = pre != null ? pre.join() : ChatHistory.open(username);
+        histories.put(Channels.DEFAULT, general);
+        for (String c : Channels.loadJoined(username)) {
+            if (!histories.containsKey(c)) histories.put(c, ChatHistory.open(username, c));
+        }
+        currentChannel = Channels.DEFAULT;
+        history = general;
+        ChatHistory.rememberOwner(username);
+        roster.join(username);
+
+        List<String> items = new ArrayList<>(histories.keySet());
+        Collections.sort(items);
+        Platform.runLater(() -> {
+            channelBox.getItems().setAll(items);
+            channelBox.setValue(Channels.DEFAULT);
+        });
+        updateChannelStatus();
+
+        List<ChatMessage> recent = history.tail(LIVE_TAIL);
+        if (!recent.isEmpty()) {
+            addMessageBubble("[System] Loaded " + history.size() + " messages from history.", false, true);
+            for (ChatMessage m : recent) renderChat(m);
+        }
+    }
+
+    // kirim clock kita; lawan balas hanya pesan yang belum kita punya
+    private void requestSync(PeerConnection conn, String channel) {
+        ChatHistory h = histories.get(channel);
+        if (h == null) return;
+
+        String clock = ChatHistory.encodeClock(h.vectorClock());
+        syncClocks.computeIfAbsent(conn, k -> new ConcurrentHashMap<>()).put(channel, clock);
+        conn.sendLine(Channels.wrap(channel, RoomSync.request(knownRoster(conn, channel), clock, 0)));
+    }
+
+    // roster hanya ikut di sync channel default
+    private String knownRoster(PeerConnection conn, String channel) {
+        if (!Channels.DEFAULT.equals(channel)) return "-|0";
+        return remoteRosterVersions.getOrDefault(conn.getRemoteName(), "-|0");
+    }
+
+    public void onSyncRequest(String channel, String rosterId, long rosterVersion, String clock, int cursor, PeerConnection conn) {
+        ChatHistory h = histories.get(channel);
+        if (h == null) {
+            conn.sendLine(Channels.wrap(channel, "SYNCEND|0"));
+            return;
+        }
+
+        boolean general = Channels.DEFAULT.equals(channel);
+        long sent = RoomSync.respond(h, general ? roster : null, rosterId, rosterVersion, clock, cursor, Channels.sink(channel, conn));
+        if (sent >= 0) rosterSent.put(conn, sent);
+    }
+
+    public void onSyncMore(String channel, int cursor, PeerConnection conn) {
+        // clock tetap clock awal sesi supaya cursor lawan tetap valid
+        Map<String, String> clocks = syncClocks.get(conn);
+        String clock = (clocks != null) ? clocks.get(channel) : null;
+        if (clock == null) return;
+        conn.sendLine(Channels.wrap(channel, RoomSync.request(knownRoster(conn, channel), clock, cursor)));
+    }
+
+    public void onSyncEnd(String channel, PeerConnection conn) {
+        Map<String, String> clocks = syncClocks.get(conn);
+        if (clocks != null) clocks.remove(channel);
+    }
+
+    public void onRoster(String rosterId, long version, String delta, PeerConnection conn) {
+        String name = conn.getRemoteName();
+        Set<String> members = remoteRosters.computeIfAbsent(name, k -> new TreeSet<>());
+
+        Set<String> before;
+        synchronized (members) {
+            before = new TreeSet<>(members);
+            RoomRoster.apply(members, delta);
+            remoteRosterVersions.put(name, rosterId + "|" + version);
+        }
+
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        String local = getLocalUsernameSafe();
+        for (String n : members) if (!before.contains(n) && !n.equals(local) && !n.equals(name)) joined.add(n);
+        for (String n : before) if (!members.contains(n) && !n.equals(local) && !n.equals(name)) left.add(n);
+
+        if (!joined.isEmpty()) addMessageBubble("[System] In room via " + name + ": " + String.join(", ", joined), false, true);
+        if (!left.isEmpty()) addMessageBubble("[System] Left room via " + name + ": " + String.join(", ", left), false, true);
+    }
+
+    // kirim perubahan roster ke peer yang sudah pernah sync
+    private void broadcastRoster() {
+        synchronized (roster) {
+            for (Map.Entry<PeerConnection, Long> e : rosterSent.entrySet()) {
+                String delta = roster.deltaSince(roster.getId(), e.getValue());
+                if (delta == null) continue;
+                e.getKey().sendLine("ROSTER|" + roster.getId() + "|" + roster.getVersion() + "|" + delta);
+                e.setValue(roster.getVersion());
+            }
+        }
+    }
+
     public void onPeerClosed(PeerConnection conn) {
         String name = conn.getRemoteName();
 
+        syncClocks.remove(conn);
+        rosterSent.remove(conn);
+        abortIncomingFile(conn);
+        DeliveryTracker tracker = conn.getDelivery();
+        if (tracker != null) tracker.detach(conn);
+
         if (name != null) {
             synchronized (peers) {
                 peers.remove(name);
             }
+            if (roster.leave(name)) broadcastRoster();
+            // interest yang datang dari koneksi ini tidak perlu diteruskan lagi
+            refreshSubscriptions();
+        }
+
+        ReconnectInfo info;
+        synchronized (reconnectTargets) {
+            info = reconnectTargets.remove(conn);
         }
 
         if (name != null && peers.containsKey(name)) {
@@ -504,7 +1251,6 @@ public class PeerController {
 
         addMessageBubble("[System] " + (name != null ? name : "Unknown") + " disconnected.", false, true);
 
-        ReconnectInfo info = reconnectTargets.remove(conn);
         if(!manualDisconnect && info != null) {
             new Thread(() -> {
                 int attempt = 0;
@@ -512,31 +1258,40 @@ public class PeerController {
                 while (attempt < 20 && !manualDisconnect) {
                     attempt++;
 
+                    synchronized (peers) {
+                        // lawan sudah connect balik duluan
+                        if (peers.containsKey(info.remoteName)) return;
+                    }
+
                     try {
                         String msg = "[Reconnecting to" + info.remoteName + " ... attempt " + attempt + "]";
                         addMessageBubble(msg, false, true);
 
                         Socket s = new Socket();
-                        s.connect(new InetSocketAddress(info.ip, info.port), 3000);
-
-                        PeerConnection newPC = new PeerConnection(s, this);
-
-                        synchronized (peers) {
-                            peers.put(info.remoteName, newPC);
-                        }
-
-                        reconnectTargets.put(newPC, info);
+                        s.connect(info.targetFor(attempt), 3000);
 
+                        // belum masuk peers: yang menjawab bisa supernode cadangan dengan
+                        // nama lain, jadi didaftarkan di onPeerHandshake dengan nama dari HELLO-nya
                         String uname = usernameField.getText().trim();
-                        newPC.sendLine("HELLO|" + uname);
+                        // info dipasang sebelum reader thread bisa memproses HELLO lawan
+                        synchronized (reconnectTargets) {
+                            PeerConnection newPC = new PeerConnection(s, new byte[0], "HELLO|" + uname, this);
+                            reconnectTargets.put(newPC, info);
+                        }
 
-                        addMessageBubble("[Reconnected to " + info.remoteName + "]", false, true);
+                        addMessageBubble("[Reconnected to " + s.getRemoteSocketAddress() + "]", false, true);
                         return;
                     } catch (Exception e) {
                         try {Thread.sleep(2000);} catch (InterruptedException ignored) {}
                     }
                 }
                 addMessageBubble("[Failed to reconnect to " + info.remoteName + "]",false, true);
+                synchronized (peers) {
+                    if (!peers.containsKey(info.remoteName)) {
+                        DeliveryTracker t = deliveries.remove(info.remoteName);
+                        if (t != null) t.dispose();
+                    }
+                }
             }, "Reconnector-" + info.remoteName).start();
         }
 
@@ -547,7 +1302,13 @@ public class PeerController {
         }
     }
 
+    private void clearDeliveries() {
+        for (DeliveryTracker t : deliveries.values()) t.dispose();
+        deliveries.clear();
+    }
+
     private void closeAllPeers() {
+        clearDeliveries();
         synchronized (peers) {
             for (PeerConnection p : new ArrayList<>(peers.values())) {
                 try { p.close(); } catch (Exception ignored) {}
@@ -556,9 +1317,10 @@ public class PeerController {
         }
     }
 
-    public void onPeerTyping(String username, PeerConnection pc) {
+    public void onPeerTyping(String channel, String username, PeerConnection pc) {
         Platform.runLater(() -> {
             if (username == null || username.isEmpty()) return;
+            if (!channel.equals(currentChannel)) return;
             HBox bubble = typingBubbles.get(username);
             if (bubble == null) {
                 Label lbl = new Label(username + " is typing...");
@@ -579,7 +1341,7 @@ public class PeerController {
         });
     }
 
-    public void onPeerStopTyping(String username, PeerConnection pc) {
+    public void onPeerStopTyping(String channel, String username, PeerConnection pc) {
         Platform.runLater(() -> {
             HBox bubble = typingBubbles.remove(username);
             if (bubble != null) {
@@ -590,7 +1352,7 @@ public class PeerController {
 
     private void stopListener() {
         listening = false;
-        try { if (listener != null) listener.close(); } catch (IOException ignored) {}
+        if (listener != null) listener.close();
     }
 
     private void resetUI() {
@@ -636,38 +1398,43 @@ public class PeerController {
 //        });
 //    }
 
-    void addMessageBubble(String message, boolean isOwnMessage, boolean isServerMessage) {
+    public void addMessageBubble(String message, boolean isOwnMessage, boolean isServerMessage) {
         Platform.runLater(() -> {
-            Label bubble = new Label(message);
-            bubble.setWrapText(true);
-            bubble.setMaxWidth(350);   // ❗ biar teks panjang turun ke baris berikutnya
-            bubble.setMinHeight(Label.USE_PREF_SIZE);
-
-            bubble.setStyle(
-                    isOwnMessage
-                            ? "-fx-background-color: #FF5F1F; -fx-text-fill: white; -fx-padding: 8 12; -fx-background-radius: 12"
-                            : isServerMessage
-                            ? "-fx-background-color: #A9A9A9; -fx-text-fill: black; -fx-padding: 6 10; -fx-background-radius: 12; -fx-font-size: 10px"
-                            : "-fx-background-color: #36454F; -fx-text-fill: white; -fx-padding: 8 12; -fx-background-radius: 12"
-            );
-
-            HBox container = new HBox(bubble);
-            container.setPadding(new Insets(4));
-            container.setFillHeight(true);  // ❗ penting biar wrap gak kepotong
-
-            container.setAlignment(
-                    isOwnMessage ? Pos.CENTER_RIGHT :
-                            isServerMessage ? Pos.CENTER :
-                                    Pos.CENTER_LEFT
-            );
-
-            messageBox.getChildren().add(container);
+            messageBox.getChildren().add(buildBubble(message, isOwnMessage, isServerMessage));
             scrollBox.setVvalue(1.0);
         });
     }
 
+    private HBox buildBubble(String message, boolean isOwnMessage, boolean isServerMessage) {
+        Label bubble = new Label(message);
+        bubble.setWrapText(true);
+        bubble.setMaxWidth(350);   // ❗ biar teks panjang turun ke baris berikutnya
+        bubble.setMinHeight(Label.USE_PREF_SIZE);
+
+        bubble.setStyle(
+                isOwnMessage
+                        ? "-fx-background-color: #FF5F1F; -fx-text-fill: white; -fx-padding: 8 12; -fx-background-radius: 12"
+                        : isServerMessage
+                        ? "-fx-background-color: #A9A9A9; -fx-text-fill: black; -fx-padding: 6 10; -fx-background-radius: 12; -fx-font-size: 10px"
+                        : "-fx-background-color: #36454F; -fx-text-fill: white; -fx-padding: 8 12; -fx-background-radius: 12"
+        );
+
+        HBox container = new HBox(bubble);
+        container.setPadding(new Insets(4));
+        container.setFillHeight(true);  // ❗ penting biar wrap gak kepotong
+
+        container.setAlignment(
+                isOwnMessage ? Pos.CENTER_RIGHT :
+                        isServerMessage ? Pos.CENTER :
+                                Pos.CENTER_LEFT
+        );
+
+        return container;
+    }
+
     public void userDisconnectAll() {
         manualDisconnect = true;
+        clearDeliveries();
 
         List<PeerConnection> copypeer = new ArrayList<>(peers.values());
         for (PeerConnection pc : copypeer) {
@@ -687,5 +1454,6 @@ public class PeerController {
     public void safeShutdown() {
         closeAllPeers();
         stopListener();
+        for (ChatHistory h : histories.values()) h.close();
     }
 }
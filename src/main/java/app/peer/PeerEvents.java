@@ -0,0 +1,47 @@
+package main.java.app.peer;
+
+/**
+ * Callback dari PeerConnection ke pemiliknya. PeerController (UI) adalah
+ * implementasi utama; HeadlessPeer dipakai replay capture tanpa JavaFX.
+ * Semua dipanggil dari reader thread koneksi.
+ */
+public interface PeerEvents {
+    String getLocalUsernameSafe();
+
+    void addMessageBubble(String message, boolean isOwnMessage, boolean isServerMessage);
+
+    void onPeerHandshake(String remoteName, PeerConnection conn);
+
+    void onPeerClosed(PeerConnection conn);
+
+    void onPeerMessage(String display, PeerConnection from);
+
+    void onPeerChat(String channel, ChatMessage m, PeerConnection from);
+
+    void onHistoryMessage(String channel, ChatMessage m, PeerConnection from);
+
+    void onSyncRequest(String channel, String rosterId, long rosterVersion, String clock, int cursor, PeerConnection conn);
+
+    void onSyncMore(String channel, int cursor, PeerConnection conn);
+
+    void onSyncEnd(String channel, PeerConnection conn);
+
+    void onRoster(String rosterId, long version, String delta, PeerConnection conn);
+
+    void onRemoteSubscribe(String channel, PeerConnection conn);
+
+    void onRemoteUnsubscribe(String channel, PeerConnection conn);
+
+    void onPeerTyping(String channel, String username, PeerConnection pc);
+
+    void onPeerStopTyping(String channel, String username, PeerConnection pc);
+
+    void onIncomingFileStart(String fileName, long size, String hash, PeerConnection pc);
+
+    void onIncomingFileData(String payload, PeerConnection pc);
+
+    void onIncomingFileEnd(PeerConnection pc);
+
+    /** Pengirim gagal membaca file-nya; transfer yang sedang masuk dibuang. */
+    void onIncomingFileAbort(PeerConnection pc);
+}
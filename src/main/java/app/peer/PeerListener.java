@@ -0,0 +1,286 @@
+package main.java.app.peer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Listener peer dengan admission control. Koneksi baru hanya dipegang sebagai
+ * state kecil (channel + buffer 1 KB + deadline) di satu thread selector sampai
+ * baris HELLO valid masuk; baru setelah itu dijadikan PeerConnection lengkap
+ * (dengan thread-threadnya). Badai reconnect atau port scan jadi tidak
+ * langsung melahirkan ratusan thread.
+ *
+ *   -Dlokalpedia.acceptBacklog=128         antrian accept di OS
+ *   -Dlokalpedia.handshakeTimeoutMs=5000   batas waktu sampai HELLO
+ *   -Dlokalpedia.maxPendingHandshakes=32   koneksi yang boleh menunggu HELLO
+ *   -Dlokalpedia.acceptsPerIpPerSec=2      rate koneksi per IP (burst 10)
+ */
+public class PeerListener {
+    static final int BACKLOG = Integer.getInteger("lokalpedia.acceptBacklog", 128);
+    static final long HANDSHAKE_TIMEOUT_MS = Long.getLong("lokalpedia.handshakeTimeoutMs", 5_000);
+    static final int MAX_PENDING = Integer.getInteger("lokalpedia.maxPendingHandshakes", 32);
+    static final long PER_IP_RATE = Long.getLong("lokalpedia.acceptsPerIpPerSec", 2);
+    private static final long PER_IP_BURST = 10;
+    private static final int MAX_HELLO_BYTES = 1024;
+    private static final int MAX_NAME_LENGTH = 64;
+    private static final int MAX_TRACKED_IPS = 4096;
+    private static final long REPORT_INTERVAL_MS = 10_000;
+
+    public interface Handler {
+        /** @return nama lokal, atau kosong kalau belum diset (koneksi ditolak) */
+        String localName();
+
+        /** HELLO sudah valid; prefix = semua byte yang sudah terbaca, termasuk baris HELLO. */
+        void onHandshake(Socket socket, byte[] prefix) throws IOException;
+
+        void onListenerMessage(String message);
+    }
+
+    private final ServerSocketChannel server;
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean running = false;
+
+    private final Map<SelectionKey, Pending> pending = new HashMap<>();
+    private final Map<String, IpState> perIp = new HashMap<>();
+
+    // ditolak sejak laporan terakhir
+    private int shedRate = 0, shedPending = 0, timedOut = 0, invalid = 0;
+    private long lastReport = 0, lastPrune = 0;
+
+    private static final class Pending {
+        final SocketChannel ch;
+        final ByteBuffer buf = ByteBuffer.allocate(MAX_HELLO_BYTES);
+        final long deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT_MS;
+
+        Pending(SocketChannel ch) {
+            this.ch = ch;
+        }
+    }
+
+    private static final class IpState {
+        final TokenBucket bucket = new TokenBucket(PER_IP_RATE, PER_IP_BURST);
+        long lastSeen;
+    }
+
+    private PeerListener(ServerSocketChannel server) {
+        this.server = server;
+    }
+
+    /** Bind saja (boleh dari background waktu startup); accept baru jalan setelah start(). */
+    public static PeerListener bind(int port) throws IOException {
+        ServerSocketChannel ch = ServerSocketChannel.open();
+        ch.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        ch.bind(new InetSocketAddress(port), BACKLOG);
+        return new PeerListener(ch);
+    }
+
+    public int getLocalPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public boolean isOpen() {
+        return server.isOpen();
+    }
+
+    public void start(Handler handler) throws IOException {
+        selector = Selector.open();
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+
+        thread = new Thread(() -> loop(handler), "PeerListenerThread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void close() {
+        running = false;
+        try { server.close(); } catch (IOException ignored) {}
+        if (selector != null) selector.wakeup();
+    }
+
+    private void loop(Handler handler) {
+        try {
+            while (running) {
+                selector.select(250);
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    try {
+                        if (key.isReadable()) read(key, handler);
+                    } catch (IOException | CancelledKeyException e) {
+                        drop(key);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                expire(now);
+                report(now, handler);
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) handler.onListenerMessage("[System] Listener error: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : pending.keySet().toArray(new SelectionKey[0])) drop(key);
+            try { selector.close(); } catch (IOException ignored) {}
+            try { server.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = server.accept()) != null) {
+            try {
+                String ip = ((InetSocketAddress) ch.getRemoteAddress()).getAddress().getHostAddress();
+                if (!allowIp(ip)) {
+                    shedRate++;
+                    closeQuietly(ch);
+                    continue;
+                }
+                if (pending.size() >= MAX_PENDING) {
+                    shedPending++;
+                    closeQuietly(ch);
+                    continue;
+                }
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+                pending.put(key, new Pending(ch));
+            } catch (IOException e) {
+                // koneksi ini saja yang gagal (mis. sudah di-reset lawan)
+                closeQuietly(ch);
+            }
+        }
+    }
+
+    private void read(SelectionKey key, Handler handler) throws IOException {
+        Pending p = pending.get(key);
+        if (p == null) {
+            key.cancel();
+            return;
+        }
+        int n = p.ch.read(p.buf);
+        if (n < 0) {
+            drop(key);
+            return;
+        }
+
+        int nl = -1;
+        for (int i = 0; i < p.buf.position(); i++) {
+            if (p.buf.get(i) == '\n') {
+                nl = i;
+                break;
+            }
+        }
+        if (nl < 0) {
+            if (!p.buf.hasRemaining()) {
+                invalid++;
+                drop(key);
+            }
+            return;
+        }
+
+        String hello = new String(p.buf.array(), 0, nl, StandardCharsets.UTF_8).trim();
+        String reason = validate(hello, handler.localName());
+        if (reason != null) {
+            invalid++;
+            p.buf.clear();
+            p.buf.put(("BYE|" + reason + "\n").getBytes(StandardCharsets.UTF_8));
+            p.buf.flip();
+            try { p.ch.write(p.buf); } catch (IOException ignored) {}
+            drop(key);
+            return;
+        }
+
+        // jadi peer penuh: lepas dari selector, kembali ke blocking I/O
+        pending.remove(key);
+        key.cancel();
+        selector.selectNow();
+        p.ch.configureBlocking(true);
+
+        byte[] prefix = new byte[p.buf.position()];
+        System.arraycopy(p.buf.array(), 0, prefix, 0, prefix.length);
+        try {
+            handler.onHandshake(p.ch.socket(), prefix);
+        } catch (IOException e) {
+            closeQuietly(p.ch);
+        }
+    }
+
+    // @return null kalau valid, atau alasan penolakan
+    private static String validate(String hello, String localName) {
+        if (!hello.startsWith("HELLO|")) return "Expected HELLO";
+        String[] p = hello.split("\\|", 3);
+        String name = (p.length > 1) ? p[1] : "";
+        if (name.isEmpty() || name.length() > MAX_NAME_LENGTH) return "Invalid name";
+        if (localName == null || localName.isEmpty()) return "No username set";
+        if (name.equals(localName)) return "Name in use";
+        return null;
+    }
+
+    private boolean allowIp(String ip) {
+        long now = System.currentTimeMillis();
+        IpState s = perIp.get(ip);
+        if (s == null) {
+            if (perIp.size() >= MAX_TRACKED_IPS) perIp.clear(); // banjir dari banyak IP: mulai dari nol
+            s = new IpState();
+            perIp.put(ip, s);
+        }
+        s.lastSeen = now;
+        if (s.bucket.delayNanos(1) > 0) return false;
+        s.bucket.consume(1);
+        return true;
+    }
+
+    private void expire(long now) {
+        Iterator<Map.Entry<SelectionKey, Pending>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<SelectionKey, Pending> e = it.next();
+            if (e.getValue().deadline > now) continue;
+            timedOut++;
+            it.remove();
+            e.getKey().cancel();
+            closeQuietly(e.getValue().ch);
+        }
+
+        if (now - lastPrune > 60_000) {
+            lastPrune = now;
+            perIp.values().removeIf(s -> now - s.lastSeen > 60_000);
+        }
+    }
+
+    // ringkasan penolakan, paling sering sekali per REPORT_INTERVAL_MS
+    private void report(long now, Handler handler) {
+        if (shedRate + shedPending + timedOut + invalid == 0 || now - lastReport < REPORT_INTERVAL_MS) return;
+        lastReport = now;
+        handler.onListenerMessage("[System] Listener refused connections: " + shedRate + " rate-limited, "
+                + shedPending + " over pending limit, " + timedOut + " handshake timeouts, " + invalid + " invalid");
+        shedRate = shedPending = timedOut = invalid = 0;
+    }
+
+    private void drop(SelectionKey key) {
+        Pending p = pending.remove(key);
+        key.cancel();
+        if (p != null) closeQuietly(p.ch);
+        else closeQuietly(key.channel());
+    }
+
+    private static void closeQuietly(Channel ch) {
+        try { ch.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,82 @@
+package main.java.app.peer;
+
+import java.util.*;
+
+/**
+ * Daftar siapa saja yang ada di room (dari sudut pandang peer ini),
+ * dengan versi + log delta supaya peer lain cukup minta perubahan saja.
+ * Format delta: "=a,b,c" (snapshot) atau "+a,-b" (perubahan).
+ */
+public class RoomRoster {
+    private static final int MAX_LOG = 256;
+
+    // id acak per proses: versi dari proses lain tidak bisa dibandingkan
+    private final String id = Long.toHexString(new Random().nextLong() & Long.MAX_VALUE);
+    private final Set<String> members = new TreeSet<>();
+    private final Deque<String> log = new ArrayDeque<>();
+    private long version = 0;
+
+    public String getId() {
+        return id;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized Set<String> members() {
+        return new TreeSet<>(members);
+    }
+
+    public synchronized boolean join(String name) {
+        if (!members.add(name)) return false;
+        record("+" + name);
+        return true;
+    }
+
+    public synchronized boolean leave(String name) {
+        if (!members.remove(name)) return false;
+        record("-" + name);
+        return true;
+    }
+
+    private void record(String entry) {
+        version++;
+        log.addLast(entry);
+        while (log.size() > MAX_LOG) log.removeFirst();
+    }
+
+    /**
+     * Delta sejak versi yang diketahui peer lain.
+     * @return null kalau tidak ada perubahan
+     */
+    public synchronized String deltaSince(String knownId, long knownVersion) {
+        if (id.equals(knownId) && knownVersion == version) return null;
+
+        long oldest = version - log.size();
+        if (!id.equals(knownId) || knownVersion < oldest || knownVersion > version) {
+            return "=" + String.join(",", members);
+        }
+
+        List<String> entries = new ArrayList<>(log);
+        int skip = (int) (knownVersion - oldest);
+        return String.join(",", entries.subList(skip, entries.size()));
+    }
+
+    /** Terapkan delta ke set lokal milik peer penerima. */
+    public static void apply(Set<String> target, String delta) {
+        if (delta == null) return;
+        if (delta.startsWith("=")) {
+            target.clear();
+            for (String n : delta.substring(1).split(",")) {
+                if (!n.isEmpty()) target.add(n);
+            }
+            return;
+        }
+        for (String e : delta.split(",")) {
+            if (e.length() < 2) continue;
+            if (e.charAt(0) == '+') target.add(e.substring(1));
+            else if (e.charAt(0) == '-') target.remove(e.substring(1));
+        }
+    }
+}
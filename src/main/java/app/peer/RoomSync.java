@@ -0,0 +1,50 @@
+package main.java.app.peer;
+
+import java.util.List;
+
+/**
+ * Sisi responder protokol SYNC, dipakai bareng oleh PeerController dan Supernode.
+ *
+ *   SYNC|rosterId|rosterVersion|clock|cursor
+ *   -> ROSTER|id|version|delta   (hanya di halaman pertama, kalau ada perubahan)
+ *   -> HIST|pesan ... (maks PAGE_SIZE)
+ *   -> SYNCMORE|cursor  atau  SYNCEND|total
+ *
+ * Untuk channel selain default semua frame dibungkus CH|channel|..., dan roster
+ * tidak ikut dikirim (roster milik koneksi, bukan channel).
+ */
+final class RoomSync {
+    private RoomSync() {}
+
+    /** @return versi roster yang sekarang dipegang peminta, atau -1 kalau bukan halaman pertama / roster null */
+    static long respond(ChatHistory h, RoomRoster roster, String rosterId, long rosterVersion,
+                        String clock, int cursor, LineSink out) {
+        long sent = -1;
+        if (cursor == 0 && roster != null) {
+            synchronized (roster) {
+                String delta = roster.deltaSince(rosterId, rosterVersion);
+                if (delta != null) {
+                    out.sendLine("ROSTER|" + roster.getId() + "|" + roster.getVersion() + "|" + delta);
+                }
+                sent = roster.getVersion();
+            }
+        }
+
+        int[] next = new int[1];
+        List<ChatMessage> page = h.missingPage(ChatHistory.decodeClock(clock), cursor, ChatHistory.PAGE_SIZE, next);
+        for (ChatMessage m : page) {
+            out.sendLine("HIST|" + m.toWire());
+        }
+
+        if (next[0] >= 0) {
+            out.sendLine("SYNCMORE|" + next[0]);
+        } else {
+            out.sendLine("SYNCEND|" + h.size());
+        }
+        return sent;
+    }
+
+    static String request(String knownRoster, String clock, int cursor) {
+        return "SYNC|" + knownRoster + "|" + clock + "|" + cursor;
+    }
+}
@@ -0,0 +1,29 @@
+package main.java.app.peer;
+
+/**
+ * Ukur durasi tiap fase startup. Aktif dengan -Dlokalpedia.startupTiming=true,
+ * hasilnya ditulis ke stderr relatif terhadap waktu JVM start.
+ */
+public final class StartupTiming {
+    public static final boolean ENABLED = Boolean.getBoolean("lokalpedia.startupTiming");
+
+    // ManagementFactory sendiri butuh waktu load, jadi hanya disentuh kalau diaktifkan
+    private static final long JVM_START = ENABLED ? jvmStartMillis() : 0;
+
+    private StartupTiming() {}
+
+    public static void mark(String phase) {
+        if (!ENABLED) return;
+        long sinceJvm = System.currentTimeMillis() - JVM_START;
+        System.err.println("[startup] +" + sinceJvm + " ms  " + phase + "  (" + Thread.currentThread().getName() + ")");
+    }
+
+    private static long jvmStartMillis() {
+        try {
+            return java.lang.management.ManagementFactory.getRuntimeMXBean().getStartTime();
+        } catch (Throwable t) {
+            // java.management tidak tersedia (jlink minimal), pakai waktu class load
+            return System.currentTimeMillis();
+        }
+    }
+}
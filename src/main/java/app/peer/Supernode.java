@@ -0,0 +1,607 @@
+package main.java.app.peer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Relay headless untuk room besar. Satu thread selector melayani semua koneksi,
+ * jadi ribuan leaf tidak berarti ribuan thread; tiap leaf cukup satu koneksi
+ * upstream ke sini.
+ *
+ * Setiap pesan di-encode sekali jadi ByteBuffer lalu di-fan-out ke semua session
+ * lewat duplicate() (tanpa copy). Supernode lain (backup) disambung lewat --link
+ * dan diperlakukan seperti session biasa, jadi history-nya ikut tersinkron dan
+ * leaf bisa failover ke sana.
+ *
+ * Channel selain default hanya dikirim ke session yang SUB ke channel itu;
+ * link antar supernode selalu menerima semua channel.
+ */
+public class Supernode {
+    public static final String ROLE = "SUPER";
+
+    private static final long TIMEOUT_MS = 30_000;
+    private static final long LINK_PING_MS = 10_000;
+    private static final long LINK_RETRY_MS = 5_000;
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final int ACK_EVERY = 32;
+    // berhenti baca dari semua peer di atas 90% anggaran global, lanjut di bawah 70%
+    private static final double PAUSE_AT = 0.9;
+    private static final double RESUME_AT = 0.7;
+    private static final int MAX_CHANNELS = 1024;
+
+    private final String name;
+    private final int port;
+    private final List<InetSocketAddress> links;
+    private final ChatHistory history;
+    // history channel lain, dibuka saat pertama kali ada traffic / SUB
+    private final Map<String, ChatHistory> channelHistories = new HashMap<>();
+    private final RoomRoster roster = new RoomRoster();
+
+    private final Set<Session> sessions = new HashSet<>();
+    private Session[] snapshot = new Session[0];
+    private boolean snapshotDirty = false;
+    private final Map<InetSocketAddress, Session> linkSessions = new HashMap<>();
+    private final Map<InetSocketAddress, Long> linkRetryAt = new HashMap<>();
+
+    private final MemoryBudget budget = MemoryBudget.GLOBAL;
+    private boolean readsPaused = false;
+
+    private Selector selector;
+    private volatile boolean running = true;
+
+    public Supernode(String name, int port, List<InetSocketAddress> links) {
+        this.name = name;
+        this.port = port;
+        this.links = links;
+        this.history = ChatHistory.open(name);
+    }
+
+    public void run() throws IOException {
+        selector = Selector.open();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        log("Listening on port " + port + " (" + history.size() + " messages in history)");
+
+        long nextSweep = 0;
+        while (running) {
+            selector.select(1000);
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                try {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept(server);
+                        continue;
+                    }
+                    Session s = (Session) key.attachment();
+                    if (key.isConnectable()) s.finishConnect();
+                    if (key.isValid() && key.isReadable()) s.read();
+                    if (key.isValid() && key.isWritable()) s.flush();
+                } catch (IOException | CancelledKeyException e) {
+                    Object att = key.attachment();
+                    if (att instanceof Session) ((Session) att).close();
+                }
+            }
+
+            updateFlowControl();
+
+            long now = System.currentTimeMillis();
+            if (now >= nextSweep) {
+                sweep(now);
+                connectLinks(now);
+                nextSweep = now + 1000;
+            }
+        }
+
+        for (Session s : new ArrayList<>(sessions)) s.close();
+        try { server.close(); } catch (IOException ignored) {}
+        try { selector.close(); } catch (IOException ignored) {}
+        history.close();
+        for (ChatHistory h : channelHistories.values()) h.close();
+    }
+
+    public void stop() {
+        running = false;
+        if (selector != null) selector.wakeup();
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel ch;
+        while ((ch = server.accept()) != null) {
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Session s = new Session(ch, null);
+            s.key = ch.register(selector, SelectionKey.OP_READ, s);
+            addSession(s);
+        }
+    }
+
+    private void connectLinks(long now) {
+        for (InetSocketAddress addr : links) {
+            if (linkSessions.containsKey(addr)) continue;
+            if (linkRetryAt.getOrDefault(addr, 0L) > now) continue;
+            try {
+                SocketChannel ch = SocketChannel.open();
+                ch.configureBlocking(false);
+                Session s = new Session(ch, addr);
+                s.key = ch.register(selector, SelectionKey.OP_CONNECT, s);
+                linkSessions.put(addr, s);
+                addSession(s);
+                if (ch.connect(addr)) s.finishConnect();
+            } catch (IOException e) {
+                linkRetryAt.put(addr, now + LINK_RETRY_MS);
+            }
+        }
+    }
+
+    private void sweep(long now) {
+        for (Session s : sessions()) {
+            // selama baca di-pause, PING lawan tertahan di TCP: jangan dianggap timeout
+            if (!readsPaused && now - s.lastSeen > TIMEOUT_MS) {
+                log((s.remoteName != null ? s.remoteName : s.describe()) + " timed out");
+                s.close();
+            } else if (s.linkTarget != null && s.handshaken && now - s.lastPing >= LINK_PING_MS) {
+                // dua supernode tidak saling kirim PING kalau tidak dipancing
+                s.lastPing = now;
+                s.sendLine("PING|" + now);
+            }
+        }
+    }
+
+    /**
+     * Kalau total antrian + buffer mendekati anggaran global, semua session
+     * berhenti dibaca sampai antrian keluar terkuras; pengirim tertahan di TCP.
+     */
+    private void updateFlowControl() {
+        long used = budget.used();
+        if (!readsPaused && used > budget.getLimit() * PAUSE_AT) {
+            readsPaused = true;
+            log("Memory budget at " + (used >> 20) + " MB, pausing reads");
+        } else if (readsPaused && used < budget.getLimit() * RESUME_AT) {
+            readsPaused = false;
+            log("Memory budget at " + (used >> 20) + " MB, resuming reads");
+        } else {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Session s : sessions()) {
+            // waktu pause tidak dihitung ke timeout
+            if (!readsPaused) s.lastSeen = Math.max(s.lastSeen, now);
+            s.updateInterest();
+        }
+    }
+
+    private void addSession(Session s) {
+        sessions.add(s);
+        snapshotDirty = true;
+    }
+
+    private Session[] sessions() {
+        if (snapshotDirty) {
+            snapshot = sessions.toArray(new Session[0]);
+            snapshotDirty = false;
+        }
+        return snapshot;
+    }
+
+    private void handle(Session s, String line) {
+        if (line.startsWith("HELLO|")) {
+            onHello(s, line);
+            return;
+        }
+
+        if (!s.handshaken) {
+            // frame apa pun sebelum HELLO = bukan peer kita
+            s.close();
+            return;
+        }
+
+        if (line.startsWith("REL|")) {
+            // REL|seq|ack|payload; TCP sudah urut, cukup buang duplikat replay
+            String[] p = line.split("\\|", 4);
+            if (p.length < 4) return;
+            try {
+                long seq = Long.parseLong(p[1]);
+                s.sinceAck++;
+                if (seq > s.delivered) {
+                    // gap (lawan membuang buffer) ditambal lewat SYNC, jadi langsung maju
+                    s.delivered = seq;
+                    s.replaying = seq <= s.replayUpTo;
+                    handle(s, p[3]);
+                    s.replaying = false;
+                }
+            } catch (NumberFormatException ignored) {}
+            if (s.sinceAck >= ACK_EVERY && s.isOpen()) {
+                s.sinceAck = 0;
+                s.sendLine("ACK|" + DeliveryTracker.ackToken(s.delivered, s.remoteStream));
+            }
+            return;
+        }
+
+        if (line.startsWith("RELBASE|")) {
+            // RELBASE|stream|base|upTo
+            String[] p = line.split("\\|", 4);
+            if (p.length < 3) return;
+            try {
+                long base = Long.parseLong(p[2]);
+                long upTo = (p.length > 3) ? Long.parseLong(p[3]) : 0;
+                if (!p[1].equals(s.remoteStream)) {
+                    s.remoteStream = p[1];
+                    s.delivered = base;
+                    s.replayUpTo = upTo;
+                } else {
+                    if (base > s.delivered) s.delivered = base;
+                    s.replayUpTo = Math.max(s.replayUpTo, upTo);
+                }
+            } catch (NumberFormatException ignored) {}
+            return;
+        }
+
+        if (line.startsWith("PING|")) {
+            String[] p = line.split("\\|");
+            s.sendLine("PONG|" + (p.length > 1 ? p[1] : "") + "|" + DeliveryTracker.ackToken(s.delivered, s.remoteStream));
+            return;
+        }
+
+        if (line.startsWith("CH|")) {
+            // CH|channel|frame
+            String[] p = line.split("\\|", 3);
+            if (p.length == 3 && Channels.isValid(p[1])) handleChannel(s, p[1], p[2]);
+            return;
+        }
+
+        if (handleChannel(s, Channels.DEFAULT, line)) return;
+
+        if (line.startsWith("SUB|")) {
+            String channel = Channels.normalize(line.substring(4));
+            if (!Channels.isValid(channel) || s.channels.contains(channel)) return;
+            if (s.channels.size() >= Channels.MAX_PER_PEER || historyFor(channel) == null) return;
+            s.channels.add(channel);
+            // pesan channel ini yang mungkin dikirim leaf selagi kita tidak subscribe
+            requestSync(s, channel);
+            return;
+        }
+
+        if (line.startsWith("UNSUB|")) {
+            s.channels.remove(Channels.normalize(line.substring(6)));
+            return;
+        }
+
+        if (line.startsWith("ROSTER|")) {
+            // roster supernode dibangun dari session sendiri; cukup catat versinya
+            String[] p = line.split("\\|", 4);
+            if (p.length >= 3) s.knownRoster = p[1] + "|" + p[2];
+            return;
+        }
+
+        if (line.startsWith("FILEINFO|")) {
+            // transfer file antar leaf belum di-relay lewat supernode
+            s.sendLine("FILEREJECT");
+            return;
+        }
+
+        if (line.startsWith("BYE|")) {
+            s.close();
+        }
+
+        // PONG, ACK, FILEDATA, FILEEND, dll: cukup update lastSeen
+    }
+
+    // @return false kalau bukan frame channel
+    private boolean handleChannel(Session s, String channel, String line) {
+        if (line.startsWith("CHAT|") || line.startsWith("HIST|")) {
+            ChatHistory h = historyFor(channel);
+            ChatMessage m = ChatMessage.fromWire(line.substring(5));
+            if (h != null && m != null && h.add(m)) {
+                // hasil sync / replay tetap HIST, supaya tidak dihitung sebagai latensi live
+                boolean live = line.startsWith("CHAT|") && !s.replaying;
+                fanOut(s, channel, Channels.wrap(channel, (live ? "CHAT|" : "HIST|") + m.toWire()));
+            }
+            return true;
+        }
+
+        if (line.startsWith("TYPE|") || line.startsWith("STOPTYPE|")) {
+            // indikator mengetik boleh hilang; jangan dorong ke session yang antriannya sudah tebal
+            ByteBuffer frame = encode(Channels.wrap(channel, line));
+            for (Session other : sessions()) {
+                if (other != s && other.wants(channel) && other.queued < budget.getPeerQuota() / 2) other.enqueue(frame);
+            }
+            return true;
+        }
+
+        if (line.startsWith("SYNC|")) {
+            String[] p = line.split("\\|", 5);
+            ChatHistory h = historyFor(channel);
+            if (p.length < 5 || h == null) return true;
+            boolean general = Channels.DEFAULT.equals(channel);
+            try {
+                long sent = RoomSync.respond(h, general ? roster : null, p[1], Long.parseLong(p[2]), p[3], Integer.parseInt(p[4]), Channels.sink(channel, s));
+                if (sent >= 0) s.rosterSent = sent;
+            } catch (NumberFormatException ignored) {}
+            return true;
+        }
+
+        if (line.startsWith("SYNCMORE|")) {
+            String clock = s.syncClocks.get(channel);
+            if (clock == null) return true;
+            try {
+                s.sendLine(Channels.wrap(channel, RoomSync.request(s.knownRoster(channel), clock, Integer.parseInt(line.substring(9)))));
+            } catch (NumberFormatException ignored) {}
+            return true;
+        }
+
+        if (line.startsWith("SYNCEND|")) {
+            s.syncClocks.remove(channel);
+            return true;
+        }
+
+        return false;
+    }
+
+    private ChatHistory historyFor(String channel) {
+        if (Channels.DEFAULT.equals(channel)) return history;
+        ChatHistory h = channelHistories.get(channel);
+        if (h == null && channelHistories.size() < MAX_CHANNELS) {
+            h = ChatHistory.open(name, channel);
+            channelHistories.put(channel, h);
+            // channel baru buat kita: backup supernode mungkin sudah punya isinya
+            for (Session other : sessions()) {
+                if (other.remoteIsSuper && other.handshaken) requestSync(other, channel);
+            }
+        }
+        return h;
+    }
+
+    // minta pesan channel ini yang belum kita punya dari session s
+    private void requestSync(Session s, String channel) {
+        ChatHistory h = historyFor(channel);
+        if (h == null) return;
+        String clock = ChatHistory.encodeClock(h.vectorClock());
+        s.syncClocks.put(channel, clock);
+        s.sendLine(Channels.wrap(channel, RoomSync.request(s.knownRoster(channel), clock, 0)));
+    }
+
+    private void onHello(Session s, String line) {
+        String[] p = line.split("\\|", 3);
+        String remote = (p.length > 1) ? p[1] : "";
+        if (remote.isEmpty() || remote.equals(name)) {
+            s.sendLine("BYE|Invalid name");
+            s.close();
+            return;
+        }
+
+        // leaf reconnect sebelum session lama timeout -> buang yang lama
+        for (Session other : sessions()) {
+            if (other != s && remote.equals(other.remoteName)) other.close();
+        }
+
+        boolean firstHello = !s.handshaken;
+        s.remoteName = remote;
+        s.remoteIsSuper = p.length > 2 && ROLE.equals(p[2]);
+        s.handshaken = true;
+
+        if (firstHello && s.linkTarget == null) s.sendLine("HELLO|" + name + "|" + ROLE);
+        log((s.remoteIsSuper ? "Supernode " : "Leaf ") + remote + " joined (" + s.describe() + ")");
+
+        if (!s.remoteIsSuper && roster.join(remote)) broadcastRoster();
+
+        // minta pesan yang mungkin dikirim leaf selagi kita down
+        requestSync(s, Channels.DEFAULT);
+        if (s.remoteIsSuper) {
+            for (String channel : new ArrayList<>(channelHistories.keySet())) requestSync(s, channel);
+        }
+    }
+
+    private void fanOut(Session from, String channel, String line) {
+        ByteBuffer frame = encode(line);
+        for (Session s : sessions()) {
+            if (s != from && s.wants(channel)) s.enqueue(frame);
+        }
+    }
+
+    private void broadcastRoster() {
+        // session dengan versi yang sama dapat frame yang sama, encode sekali per versi
+        Map<Long, ByteBuffer> frames = new HashMap<>();
+        for (Session s : sessions()) {
+            if (s.rosterSent < 0 || !s.isOpen()) continue;
+            ByteBuffer frame = frames.computeIfAbsent(s.rosterSent, v -> {
+                String delta = roster.deltaSince(roster.getId(), v);
+                return (delta == null) ? null : encode("ROSTER|" + roster.getId() + "|" + roster.getVersion() + "|" + delta);
+            });
+            if (frame == null) continue;
+            s.enqueue(frame);
+            s.rosterSent = roster.getVersion();
+        }
+    }
+
+    private static ByteBuffer encode(String line) {
+        return ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    private static void log(String msg) {
+        System.out.println("[Supernode] " + msg);
+    }
+
+    private class Session implements LineSink {
+        final SocketChannel ch;
+        final InetSocketAddress linkTarget; // non-null = koneksi keluar ke supernode lain
+        SelectionKey key;
+
+        final MemoryBudget.Account memory = budget.account("session");
+        ByteBuffer in = ByteBuffer.allocate(4096);
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        long queued = 0;
+        boolean closed = false;
+
+        String remoteName;
+        boolean handshaken = false;
+        boolean remoteIsSuper = false;
+        long lastSeen = System.currentTimeMillis();
+        long lastPing = 0;
+
+        // inbound REL dari leaf
+        String remoteStream;
+        long delivered = 0;
+        long replayUpTo = 0;
+        boolean replaying = false;
+        int sinceAck = 0;
+
+        // sync, clock awal per channel supaya cursor SYNCMORE tetap valid
+        final Map<String, String> syncClocks = new HashMap<>();
+        String knownRoster = "-|0";
+        long rosterSent = -1;
+
+        // channel non-default yang di-SUB session ini
+        final Set<String> channels = new HashSet<>();
+
+        Session(SocketChannel ch, InetSocketAddress linkTarget) {
+            this.ch = ch;
+            this.linkTarget = linkTarget;
+            memory.tryReserve(in.capacity());
+        }
+
+        boolean isOpen() {
+            return !closed;
+        }
+
+        boolean wants(String channel) {
+            if (!handshaken) return false;
+            return Channels.DEFAULT.equals(channel) || remoteIsSuper || channels.contains(channel);
+        }
+
+        // roster hanya ikut di sync channel default
+        String knownRoster(String channel) {
+            return Channels.DEFAULT.equals(channel) ? knownRoster : "-|0";
+        }
+
+        String describe() {
+            try {
+                return String.valueOf(ch.getRemoteAddress());
+            } catch (IOException e) {
+                return "?";
+            }
+        }
+
+        void finishConnect() throws IOException {
+            if (!ch.finishConnect()) return;
+            key.interestOps(SelectionKey.OP_READ);
+            lastSeen = System.currentTimeMillis();
+            sendLine("HELLO|" + name + "|" + ROLE);
+        }
+
+        void read() throws IOException {
+            int n = ch.read(in);
+            if (n < 0) {
+                close();
+                return;
+            }
+            lastSeen = System.currentTimeMillis();
+
+            in.flip();
+            int start = in.position();
+            for (int i = start; i < in.limit(); i++) {
+                if (in.get(i) != '\n') continue;
+                int end = (i > start && in.get(i - 1) == '\r') ? i - 1 : i;
+                String line = new String(in.array(), start, end - start, StandardCharsets.UTF_8);
+                start = i + 1;
+                handle(this, line);
+                if (closed) return;
+            }
+            in.position(start);
+            in.compact();
+
+            if (!in.hasRemaining()) {
+                // satu baris lebih besar dari buffer: besarkan sampai maxLineBytes
+                int size = (int) Math.min(MemoryBudget.MAX_LINE_BYTES, in.capacity() * 2L);
+                if (in.capacity() >= MemoryBudget.MAX_LINE_BYTES || !memory.tryReserve(size - in.capacity())) {
+                    log("Line too long from " + describe() + ", closing");
+                    close();
+                    return;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(size);
+                in.flip();
+                bigger.put(in);
+                in = bigger;
+            }
+        }
+
+        @Override
+        public boolean sendLine(String line) {
+            return enqueue(encode(line));
+        }
+
+        boolean enqueue(ByteBuffer frame) {
+            if (closed) return false;
+            if (!memory.tryReserve(frame.remaining())) {
+                // kuota habis: peer ini terlalu lambat, nanti rejoin + SYNC
+                log("Slow consumer " + (remoteName != null ? remoteName : describe()) + ", closing");
+                close();
+                return false;
+            }
+            out.addLast(frame.duplicate());
+            queued += frame.remaining();
+            try {
+                if (out.size() == 1) flush();
+            } catch (IOException e) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        void flush() throws IOException {
+            while (!out.isEmpty()) {
+                ByteBuffer head = out.peekFirst();
+                int before = head.remaining();
+                ch.write(head);
+                int written = before - head.remaining();
+                queued -= written;
+                memory.release(written);
+                if (head.hasRemaining()) break;
+                out.removeFirst();
+            }
+            updateInterest();
+        }
+
+        void updateInterest() {
+            if (closed || key == null || !key.isValid() || (key.interestOps() & SelectionKey.OP_CONNECT) != 0) return;
+            int ops = readsPaused ? 0 : SelectionKey.OP_READ;
+            if (!out.isEmpty()) ops |= SelectionKey.OP_WRITE;
+            key.interestOps(ops);
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+
+            if (key != null) key.cancel();
+            try { ch.close(); } catch (IOException ignored) {}
+            out.clear();
+            memory.releaseAll();
+            sessions.remove(this);
+            snapshotDirty = true;
+
+            if (linkTarget != null) {
+                linkSessions.remove(linkTarget);
+                linkRetryAt.put(linkTarget, System.currentTimeMillis() + LINK_RETRY_MS);
+            }
+
+            if (handshaken) {
+                log((remoteIsSuper ? "Supernode " : "Leaf ") + remoteName + " left");
+                if (!remoteIsSuper && roster.leave(remoteName)) broadcastRoster();
+            }
+        }
+    }
+}
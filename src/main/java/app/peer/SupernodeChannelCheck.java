@@ -0,0 +1,112 @@
+package main.java.app.peer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Collections;
+
+/**
+ * Cek headless untuk channel selain default di mode supernode: supernode lokal
+ * di port acak, tiga leaf HeadlessPeer lewat socket sungguhan.
+ *
+ *   java main.java.app.peer.SupernodeChannelCheck
+ *
+ * - leaf harus menganggap supernode mau semua channel (supernode tidak kirim SUB)
+ * - CHAT #dev dari alice sampai ke bob yang SUB #dev
+ * - carol yang join belakangan menarik #dev dari supernode lewat SYNC
+ *
+ * History ditulis ke direktori sementara. Exit code 1 kalau ada yang gagal.
+ */
+public final class SupernodeChannelCheck {
+    private static final String CHANNEL = "dev";
+    private static final long WAIT_MS = 5_000;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("lokalpedia.home", Files.createTempDirectory("lokalpedia-check").toString());
+
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Supernode hub = new Supernode("hub", port, Collections.emptyList());
+        Thread hubThread = new Thread(() -> {
+            try {
+                hub.run();
+            } catch (IOException e) {
+                System.err.println("[Check] Supernode failed: " + e.getMessage());
+            }
+        }, "Supernode");
+        hubThread.setDaemon(true);
+        hubThread.start();
+
+        HeadlessPeer alice = new HeadlessPeer("alice", false);
+        HeadlessPeer bob = new HeadlessPeer("bob", false);
+        HeadlessPeer carol = new HeadlessPeer("carol", false);
+        PeerConnection a = null, b = null, c = null;
+        try {
+            a = connect(port, alice);
+            b = connect(port, bob);
+            check("alice handshake", await(alice, "handshake", 1));
+            check("bob handshake", await(bob, "handshake", 1));
+            check("hub is a supernode", a.isSupernode());
+            check("supernode wants #" + CHANNEL + " without SUB", a.wantsChannel(CHANNEL));
+
+            // supernode membalas SUB dengan SYNC channel itu: tanda SUB bob sudah diproses
+            b.sendLine("SUB|" + CHANNEL);
+            check("hub syncs #" + CHANNEL + " from bob", await(bob, "sync-request", 2));
+
+            ChatMessage m = new ChatMessage("alice", 1, new HybridClock().now(), "halo #" + CHANNEL);
+            if (a.wantsChannel(CHANNEL)) a.sendLine(Channels.wrap(CHANNEL, "CHAT|" + m.toWire()));
+            check("bob receives #" + CHANNEL + " chat", await(bob, "chat", 1));
+
+            // join belakangan, sama seperti joinChannel di controller: SUB lalu SYNC ke supernode
+            c = connect(port, carol);
+            check("carol handshake", await(carol, "handshake", 1));
+            c.sendLine("SUB|" + CHANNEL);
+            c.sendLine(Channels.wrap(CHANNEL, RoomSync.request("-|0", "", 0)));
+            check("carol pulls #" + CHANNEL + " history", await(carol, "hist", 1));
+        } finally {
+            if (a != null) a.close();
+            if (b != null) b.close();
+            if (c != null) c.close();
+            hub.stop();
+            alice.close();
+            bob.close();
+            carol.close();
+        }
+
+        System.out.println("[Check] " + (failures == 0 ? "all passed" : failures + " failed"));
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // supernode bind di thread-nya sendiri: coba lagi sampai port-nya terbuka
+    private static PeerConnection connect(int port, HeadlessPeer peer) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (true) {
+            try {
+                Socket s = new Socket("127.0.0.1", port);
+                return new PeerConnection(s, new byte[0], "HELLO|" + peer.getLocalUsernameSafe(), peer);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static boolean await(HeadlessPeer peer, String event, long min) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (peer.getCounts().getOrDefault(event, 0L) < min) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    private static void check(String what, boolean ok) {
+        System.out.println("[Check] " + (ok ? "ok   " : "FAIL ") + what);
+        if (!ok) failures++;
+    }
+}
@@ -0,0 +1,59 @@
+package main.java.app.peer;
+
+/**
+ * Token bucket sederhana dalam byte/detik. rate <= 0 = tanpa batas.
+ * Saldo boleh negatif: trafik yang tidak boleh ditahan (chat) tetap dicatat
+ * sebagai utang, jadi bulk yang menunggu setelahnya.
+ */
+public class TokenBucket {
+    private long rate;
+    private final long burst;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    public TokenBucket(long bytesPerSecond, long burst) {
+        this.rate = bytesPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    /** Dari system property dalam KB/s; tidak diset / 0 = tanpa batas. */
+    static TokenBucket fromProperty(String key) {
+        long kbps = Long.getLong(key, 0);
+        return new TokenBucket(kbps * 1024, Math.max(64 * 1024, kbps * 1024 / 4));
+    }
+
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    public synchronized void setRate(long bytesPerSecond) {
+        refill();
+        this.rate = bytesPerSecond;
+    }
+
+    public synchronized boolean isLimited() {
+        return rate > 0;
+    }
+
+    /** @return nanodetik sampai bytes bisa dikirim, 0 kalau sudah boleh */
+    public synchronized long delayNanos(long bytes) {
+        if (rate <= 0) return 0;
+        refill();
+        // frame lebih besar dari burst cukup menunggu saldo tidak negatif
+        double need = Math.min(bytes, burst) - tokens;
+        return (need <= 0) ? 0 : (long) (need * 1e9 / rate);
+    }
+
+    public synchronized void consume(long bytes) {
+        if (rate <= 0) return;
+        refill();
+        tokens -= bytes;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate > 0) tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+    }
+}
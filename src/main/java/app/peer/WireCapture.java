@@ -0,0 +1,201 @@
+package main.java.app.peer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rekam semua frame masuk/keluar PeerConnection ke file biner, untuk di-replay
+ * lewat CaptureReplay. Aktif dengan -Dlokalpedia.capture=/path/file.lpcap.
+ *
+ * Format:
+ *   header : "LPCP" | version (1 byte) | wall clock start (8 byte, ms)
+ *   record : kind (1 byte) | delta ns (varint) | peer id (varint) | len (varint) | UTF-8 bytes
+ *
+ * delta ns = selisih System.nanoTime() terhadap record sebelumnya (monoton).
+ * Thread jaringan hanya menaruh record ke antrian; satu thread penulis yang
+ * menulis ke disk lewat buffer besar. Antrian penuh = record dibuang (dihitung),
+ * supaya capture tidak pernah memperlambat koneksi.
+ */
+public final class WireCapture {
+    static final int MAGIC = 0x4C50_4350; // "LPCP"
+    static final int VERSION = 1;
+
+    public static final byte IN = 0;
+    public static final byte OUT = 1;
+    public static final byte PEER = 2;  // payload = alamat remote
+    public static final byte NAME = 3;  // payload = nama remote setelah HELLO
+
+    private static final int QUEUE_CAPACITY = 65_536;
+    private static final int BATCH = 1024;
+
+    private static final WireCapture INSTANCE = create(System.getProperty("lokalpedia.capture"));
+
+    private final File file;
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicInteger nextPeer = new AtomicInteger(1);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private static final class Record {
+        final byte kind;
+        final long nanos;
+        final int peer;
+        final String payload;
+
+        Record(byte kind, long nanos, int peer, String payload) {
+            this.kind = kind;
+            this.nanos = nanos;
+            this.peer = peer;
+            this.payload = payload;
+        }
+    }
+
+    private WireCapture(File file) {
+        this.file = file;
+        writerThread = new Thread(this::writeLoop, "WireCapture");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "WireCaptureFlush"));
+    }
+
+    private static WireCapture create(String path) {
+        if (path == null || path.isEmpty()) return null;
+        return new WireCapture(new File(path));
+    }
+
+    /** @return id peer untuk record berikutnya, 0 kalau capture mati */
+    public static int newPeer(String address) {
+        WireCapture c = INSTANCE;
+        if (c == null) return 0;
+        int id = c.nextPeer.getAndIncrement();
+        c.offer(PEER, id, address);
+        return id;
+    }
+
+    public static void record(byte kind, int peer, String payload) {
+        WireCapture c = INSTANCE;
+        if (c != null) c.offer(kind, peer, payload);
+    }
+
+    private void offer(byte kind, int peer, String payload) {
+        if (!running || !queue.offer(new Record(kind, System.nanoTime(), peer, payload))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(BATCH);
+        long last = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(System.currentTimeMillis());
+
+            while (running || !queue.isEmpty()) {
+                Record first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // idle: pastikan yang sudah ada sampai ke disk
+                    out.flush();
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH - 1);
+                for (Record r : batch) {
+                    if (last == 0) last = r.nanos;
+                    byte[] data = r.payload.getBytes(StandardCharsets.UTF_8);
+                    out.writeByte(r.kind);
+                    writeVarint(out, Math.max(0, r.nanos - last));
+                    writeVarint(out, r.peer);
+                    writeVarint(out, data.length);
+                    out.write(data);
+                    last = Math.max(last, r.nanos);
+                }
+                batch.clear();
+            }
+            out.flush();
+        } catch (IOException e) {
+            running = false;
+            System.err.println("[Capture] Write failed, capture stopped: " + e.getMessage());
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void shutdown() {
+        running = false;
+        try {
+            writerThread.join(5_000);
+        } catch (InterruptedException ignored) {}
+        long d = dropped.get();
+        if (d > 0) System.err.println("[Capture] " + d + " records dropped (queue full)");
+    }
+
+    static void writeVarint(DataOutput out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarint(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /** Pembaca capture, satu record per next(); null di akhir file. */
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long startMillis;
+        private long nanos = 0;
+
+        public byte kind;
+        public long offsetNanos; // sejak record pertama
+        public int peer;
+        public String payload;
+
+        public Reader(File f) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 20));
+            if (in.readInt() != MAGIC) throw new IOException("Not a capture file: " + f);
+            int version = in.readUnsignedByte();
+            if (version != VERSION) throw new IOException("Unsupported capture version " + version);
+            startMillis = in.readLong();
+        }
+
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        public boolean next() throws IOException {
+            int k = in.read();
+            if (k < 0) return false;
+            kind = (byte) k;
+            nanos += readVarint(in);
+            offsetNanos = nanos;
+            peer = (int) readVarint(in);
+            int len = (int) readVarint(in);
+            if (len > MemoryBudget.MAX_LINE_BYTES) throw new IOException("Record too large: " + len);
+            byte[] data = new byte[len];
+            in.readFully(data);
+            payload = new String(data, StandardCharsets.UTF_8);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}